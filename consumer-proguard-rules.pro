@@ -7,3 +7,9 @@
 -keepclassmembers,allowshrinking,allowobfuscation class com.android.volley.CacheDispatcher {
     void processRequest();
 }
+
+# JsonRequest looks up getBody() by name to tell whether a subclass has replaced it, so that it
+# only streams its own JSON body.
+-keepclassmembernames class * extends com.android.volley.Request {
+    public byte[] getBody();
+}
@@ -131,6 +131,13 @@ public class CacheDispatcher extends Thread {
                 return;
             }
 
+            // If the caller no longer needs a response, fail without looking anything up.
+            if (request.isPastDeadline()) {
+                request.addMarker("cache-discard-deadline");
+                mDelivery.postError(request, new DeadlineExceededError());
+                return;
+            }
+
             // Attempt to retrieve this item from cache.
             Cache.Entry entry = mCache.get(request.getCacheKey());
             if (entry == null) {
@@ -17,10 +17,36 @@
 package com.android.volley;
 
 import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.GuardedBy;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 
-/** Delivers responses and errors. */
+/**
+ * Delivers responses and errors.
+ *
+ * <p>Where deliveries run is chosen by the executor: {@link #mainThreadExecutor()} for UI code,
+ * {@link #DIRECT_EXECUTOR} to deliver on the dispatcher thread without a thread hop, e.g. for
+ * background sync, or any other executor. A request can override it with {@link
+ * Request#setDeliveryExecutor(Executor)}.
+ */
 public class ExecutorDelivery implements ResponseDelivery {
+    /**
+     * Runs deliveries on the thread that posts them, i.e. a cache or network dispatcher thread.
+     * Listeners must then be thread-safe and must not block, since they hold up the dispatcher.
+     */
+    public static final Executor DIRECT_EXECUTOR =
+            new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+
+    /** Lazily created, since the main looper may not exist yet when this class is loaded. */
+    private static Executor sMainThreadExecutor;
+
     /** Used for posting responses, typically to the main thread. */
     private final Executor mResponsePoster;
 
@@ -40,6 +66,26 @@ public class ExecutorDelivery implements ResponseDelivery {
                 };
     }
 
+    /**
+     * Creates a response delivery interface that coalesces deliveries into batches.
+     *
+     * <p>The first response posted while no batch is pending schedules a single runnable on the
+     * handler after {@code batchWindowMs}; everything posted until it runs is delivered by that
+     * runnable, in the order it was posted. This trades up to one window of latency for far fewer
+     * messages when many responses arrive at once. A window of 0 still coalesces everything
+     * posted before the handler's thread gets to run.
+     *
+     * @param handler {@link Handler} to post responses on
+     * @param batchWindowMs how long to wait for further responses before delivering a batch, e.g.
+     *     16 for one frame at 60 fps
+     */
+    public ExecutorDelivery(Handler handler, int batchWindowMs) {
+        if (batchWindowMs < 0) {
+            throw new IllegalArgumentException("batchWindowMs must not be negative");
+        }
+        mResponsePoster = new BatchingExecutor(handler, batchWindowMs);
+    }
+
     /**
      * Creates a new response delivery interface, mockable version for testing.
      *
@@ -49,6 +95,21 @@ public class ExecutorDelivery implements ResponseDelivery {
         mResponsePoster = executor;
     }
 
+    /** Returns an executor that runs deliveries on the main thread. */
+    public static synchronized Executor mainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThreadExecutor =
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+        }
+        return sMainThreadExecutor;
+    }
+
     @Override
     public void postResponse(Request<?> request, Response<?> response) {
         postResponse(request, response, null);
@@ -58,14 +119,66 @@ public class ExecutorDelivery implements ResponseDelivery {
     public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
         request.markDelivered();
         request.addMarker("post-response");
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, runnable));
+        executorFor(request).execute(new ResponseDeliveryRunnable(request, response, runnable));
     }
 
     @Override
     public void postError(Request<?> request, VolleyError error) {
         request.addMarker("post-error");
         Response<?> response = Response.error(error);
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, null));
+        executorFor(request).execute(new ResponseDeliveryRunnable(request, response, null));
+    }
+
+    private Executor executorFor(Request<?> request) {
+        Executor executor = request.getDeliveryExecutor();
+        return executor != null ? executor : mResponsePoster;
+    }
+
+    /** Runs commands in batches of everything submitted within a window. */
+    private static class BatchingExecutor implements Executor, Runnable {
+        private final Handler mHandler;
+        private final int mBatchWindowMs;
+
+        @GuardedBy("this")
+        private List<Runnable> mPending = new ArrayList<>();
+
+        /** Whether this has been posted to the handler and not started running yet. */
+        @GuardedBy("this")
+        private boolean mScheduled;
+
+        BatchingExecutor(Handler handler, int batchWindowMs) {
+            mHandler = handler;
+            mBatchWindowMs = batchWindowMs;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                mPending.add(command);
+                if (mScheduled) {
+                    return;
+                }
+                mScheduled = true;
+            }
+            if (mBatchWindowMs > 0) {
+                mHandler.postDelayed(this, mBatchWindowMs);
+            } else {
+                mHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Runnable> batch;
+            synchronized (this) {
+                batch = mPending;
+                mPending = new ArrayList<>();
+                mScheduled = false;
+            }
+            for (Runnable command : batch) {
+                command.run();
+            }
+        }
     }
 
     /** A Runnable used for delivering network responses to a listener on the main thread. */
@@ -103,6 +216,7 @@ public class ExecutorDelivery implements ResponseDelivery {
             } else {
                 mRequest.deliverError(mResponse.error);
             }
+            mRequest.publishResponse(mResponse);
 
             // If this is an intermediate response, add a marker, otherwise we're done
             // and the request can be finished.
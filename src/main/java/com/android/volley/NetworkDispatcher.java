@@ -126,29 +126,54 @@ public class NetworkDispatcher extends Thread {
                 return;
             }
 
+            // Likewise if its deadline passed while it was waiting in the queue.
+            if (request.isPastDeadline()) {
+                request.addMarker("network-discard-deadline");
+                mDelivery.postError(request, new DeadlineExceededError());
+                request.notifyListenerResponseNotUsable();
+                return;
+            }
+
             addTrafficStatsTag(request);
 
             // Perform the network request.
-            NetworkResponse networkResponse = mNetwork.performRequest(request);
+            NetworkResponse networkResponse;
+            request.setNetworkDelivery(mDelivery);
+            try {
+                networkResponse = mNetwork.performRequest(request);
+            } finally {
+                request.setNetworkDelivery(null);
+            }
             request.addMarker("network-http-complete");
 
             // If the server returned 304 AND we delivered a response already,
             // we're done -- don't deliver a second identical response.
             if (networkResponse.notModified && request.hasHadResponseDelivered()) {
+                request.publishNotModified();
                 request.finish("not-modified");
                 request.notifyListenerResponseNotUsable();
                 return;
             }
 
-            // Parse the response here on the worker thread.
-            Response<?> response = request.parseNetworkResponse(networkResponse);
-            request.addMarker("network-parse-complete");
-
-            // Write to cache if applicable.
-            // TODO: Only update cache metadata instead of entire record for 304s.
-            if (request.shouldCache() && response.cacheEntry != null) {
-                mCache.put(request.getCacheKey(), response.cacheEntry);
-                request.addMarker("network-cache-written");
+            Response<?> response;
+            try {
+                // Parse the response here on the worker thread.
+                response = request.parseNetworkResponse(networkResponse);
+                request.addMarker("network-parse-complete");
+
+                // Write to cache if applicable.
+                // TODO: Only update cache metadata instead of entire record for 304s.
+                if (request.shouldCache() && response.cacheEntry != null) {
+                    // A pooled body is recycled below, so the cache needs its own copy.
+                    if (networkResponse.isPooled()
+                            && response.cacheEntry.data == networkResponse.data) {
+                        response.cacheEntry.data = networkResponse.copyData();
+                    }
+                    mCache.put(request.getCacheKey(), response.cacheEntry);
+                    request.addMarker("network-cache-written");
+                }
+            } finally {
+                networkResponse.release();
             }
 
             // Post the response back.
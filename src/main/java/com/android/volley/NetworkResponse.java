@@ -16,6 +16,8 @@
 
 package com.android.volley;
 
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -26,6 +28,12 @@ import java.util.TreeMap;
 /** Data and headers returned from {@link Network#performRequest(Request)}. */
 public class NetworkResponse {
 
+    /** Takes back a pooled {@link #data} buffer once the response has been parsed. */
+    public interface BufferRecycler {
+        /** Called at most once, after which {@code buffer} must no longer be read. */
+        void recycle(byte[] buffer);
+    }
+
     /**
      * Creates a new network response.
      *
@@ -116,6 +124,37 @@ public class NetworkResponse {
                 /* networkTimeMs= */ 0);
     }
 
+    /**
+     * Creates a new network response whose body occupies the start of a pooled buffer.
+     *
+     * @param statusCode the HTTP status code
+     * @param data Buffer holding the response body, possibly followed by unused bytes
+     * @param dataLength Number of bytes at the start of {@code data} that make up the body
+     * @param notModified True if the server returned a 304 and the data was already in cache
+     * @param networkTimeMs Round-trip network time to receive network response
+     * @param allHeaders All headers returned with this response, or null for none
+     * @param recycler Receives {@code data} when {@link #release()} is called, or null if the
+     *     buffer isn't pooled
+     */
+    public NetworkResponse(
+            int statusCode,
+            byte[] data,
+            int dataLength,
+            boolean notModified,
+            long networkTimeMs,
+            List<Header> allHeaders,
+            @Nullable BufferRecycler recycler) {
+        this(
+                statusCode,
+                data,
+                dataLength,
+                toHeaderMap(allHeaders),
+                allHeaders,
+                notModified,
+                networkTimeMs,
+                recycler);
+    }
+
     private NetworkResponse(
             int statusCode,
             byte[] data,
@@ -123,8 +162,30 @@ public class NetworkResponse {
             List<Header> allHeaders,
             boolean notModified,
             long networkTimeMs) {
+        this(
+                statusCode,
+                data,
+                data == null ? 0 : data.length,
+                headers,
+                allHeaders,
+                notModified,
+                networkTimeMs,
+                /* recycler= */ null);
+    }
+
+    private NetworkResponse(
+            int statusCode,
+            byte[] data,
+            int dataLength,
+            Map<String, String> headers,
+            List<Header> allHeaders,
+            boolean notModified,
+            long networkTimeMs,
+            @Nullable BufferRecycler recycler) {
         this.statusCode = statusCode;
         this.data = data;
+        this.dataLength = dataLength;
+        this.mRecycler = recycler;
         this.headers = headers;
         if (allHeaders == null) {
             this.allHeaders = null;
@@ -138,9 +199,18 @@ public class NetworkResponse {
     /** The HTTP status code. */
     public final int statusCode;
 
-    /** Raw data from this response. */
+    /**
+     * Raw data from this response.
+     *
+     * <p>If the request opted into {@link Request#setShouldUsePooledResponseBuffer(boolean)}, this
+     * may be a pooled buffer that is longer than the body; only the first {@link #dataLength} bytes
+     * are valid.
+     */
     public final byte[] data;
 
+    /** Number of valid bytes at the start of {@link #data}. */
+    public final int dataLength;
+
     /**
      * Response headers.
      *
@@ -161,6 +231,40 @@ public class NetworkResponse {
     /** Network roundtrip time in milliseconds. */
     public final long networkTimeMs;
 
+    /** Takes back {@link #data} on {@link #release()}; null if it isn't pooled or was released. */
+    @GuardedBy("this")
+    @Nullable
+    private BufferRecycler mRecycler;
+
+    /** Returns true if {@link #data} is a pooled buffer that hasn't been released yet. */
+    public synchronized boolean isPooled() {
+        return mRecycler != null;
+    }
+
+    /** Returns an exact-size copy of the body, e.g. for storing a pooled response in the cache. */
+    public byte[] copyData() {
+        byte[] copy = new byte[dataLength];
+        if (data != null) {
+            System.arraycopy(data, 0, copy, 0, dataLength);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a pooled {@link #data} buffer for reuse. Has no effect if the buffer isn't pooled or
+     * was already released. The body must not be read after this is called.
+     */
+    public void release() {
+        BufferRecycler recycler;
+        synchronized (this) {
+            recycler = mRecycler;
+            mRecycler = null;
+        }
+        if (recycler != null) {
+            recycler.recycle(data);
+        }
+    }
+
     private static Map<String, String> toHeaderMap(List<Header> allHeaders) {
         if (allHeaders == null) {
             return null;
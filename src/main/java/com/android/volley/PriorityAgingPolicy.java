@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.Request.Priority;
+import java.util.Comparator;
+
+/**
+ * Orders queued requests by priority, but lets requests gain priority the longer they wait so that
+ * a steady stream of high-priority requests can't starve low-priority ones.
+ *
+ * <p>Each {@link Priority} has a weight, and a request is ordered as if it had been added {@code
+ * weight * agingIntervalMs} earlier than it actually was. With the default weights and an interval
+ * of one second, a {@link Priority#LOW} request that has waited three seconds is served ahead of a
+ * {@link Priority#IMMEDIATE} request that was just added. Requests with equal effective times are
+ * served in FIFO order.
+ *
+ * <p>Install with {@link RequestQueue#RequestQueue(Cache, Network, int, ResponseDelivery,
+ * Comparator)}. Since the ordering only depends on when a request was added, it stays consistent
+ * while requests wait in the queue.
+ */
+public class PriorityAgingPolicy implements Comparator<Request<?>> {
+
+    /** Default weights, indexed by {@link Priority#ordinal()}. */
+    private static final int[] DEFAULT_WEIGHTS = {0, 1, 2, 3};
+
+    private final long mAgingIntervalMs;
+
+    private final int[] mWeights;
+
+    /**
+     * Creates a policy where each priority level is worth one aging interval.
+     *
+     * @param agingIntervalMs how long a request must wait to be treated as one priority level
+     *     higher
+     */
+    public PriorityAgingPolicy(long agingIntervalMs) {
+        this(agingIntervalMs, DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * @param agingIntervalMs length of the aging interval
+     * @param weights number of aging intervals each priority is worth, indexed by {@link
+     *     Priority#ordinal()}. Larger gaps between weights make priorities harder to overtake.
+     */
+    public PriorityAgingPolicy(long agingIntervalMs, int[] weights) {
+        if (agingIntervalMs <= 0) {
+            throw new IllegalArgumentException("agingIntervalMs must be positive");
+        }
+        if (weights.length != Priority.values().length) {
+            throw new IllegalArgumentException(
+                    "Expected " + Priority.values().length + " weights, got " + weights.length);
+        }
+        mAgingIntervalMs = agingIntervalMs;
+        mWeights = weights.clone();
+    }
+
+    /** Returns the time a request is ordered by; smaller values are served first. */
+    long getEffectiveTimeMs(Request<?> request) {
+        return request.getEnqueueTimeMs()
+                - mWeights[request.getPriority().ordinal()] * mAgingIntervalMs;
+    }
+
+    @Override
+    public int compare(Request<?> left, Request<?> right) {
+        long leftTime = getEffectiveTimeMs(left);
+        long rightTime = getEffectiveTimeMs(right);
+        if (leftTime != rightTime) {
+            return leftTime < rightTime ? -1 : 1;
+        }
+        return left.getSequence() - right.getSequence();
+    }
+}
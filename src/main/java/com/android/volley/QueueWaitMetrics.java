@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.SystemClock;
+import com.android.volley.Request.Priority;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long requests wait between being added to a {@link RequestQueue} and being picked
+ * up by a network dispatcher, broken down by {@link Priority}.
+ *
+ * <p>Register with {@link RequestQueue#addRequestEventListener} for {@link
+ * RequestQueue.RequestEvent#REQUEST_NETWORK_DISPATCH_STARTED} only, since no other event is used.
+ * Requests served from the cache never reach a network dispatcher and aren't counted.
+ */
+public class QueueWaitMetrics implements RequestQueue.RequestEventListener {
+
+    private static final int PRIORITY_COUNT = Priority.values().length;
+
+    /** Per-priority counters, indexed by {@link Priority#ordinal()}. */
+    private final AtomicLongArray mCounts = new AtomicLongArray(PRIORITY_COUNT);
+
+    private final AtomicLongArray mTotalWaitMs = new AtomicLongArray(PRIORITY_COUNT);
+    private final AtomicLongArray mMaxWaitMs = new AtomicLongArray(PRIORITY_COUNT);
+
+    @Override
+    public void onRequestEvent(Request<?> request, @RequestQueue.RequestEvent int event) {
+        if (event != RequestQueue.RequestEvent.REQUEST_NETWORK_DISPATCH_STARTED) {
+            return;
+        }
+        long waitMs = SystemClock.elapsedRealtime() - request.getEnqueueTimeMs();
+        int index = request.getPriority().ordinal();
+        mCounts.incrementAndGet(index);
+        mTotalWaitMs.addAndGet(index, waitMs);
+        long max;
+        do {
+            max = mMaxWaitMs.get(index);
+        } while (waitMs > max && !mMaxWaitMs.compareAndSet(index, max, waitMs));
+    }
+
+    /** Returns the number of dispatched requests with the given priority. */
+    public long getCount(Priority priority) {
+        return mCounts.get(priority.ordinal());
+    }
+
+    /** Returns the average queue wait for the given priority in milliseconds, or 0 if none. */
+    public long getAverageWaitMs(Priority priority) {
+        long count = mCounts.get(priority.ordinal());
+        return count == 0 ? 0 : mTotalWaitMs.get(priority.ordinal()) / count;
+    }
+
+    /** Returns the longest queue wait for the given priority in milliseconds. */
+    public long getMaxWaitMs(Priority priority) {
+        return mMaxWaitMs.get(priority.ordinal());
+    }
+
+    /** Clears all recorded waits. */
+    public void reset() {
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mCounts.set(i, 0);
+            mTotalWaitMs.set(i, 0);
+            mMaxWaitMs.set(i, 0);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.net.TrafficStats;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.CallSuper;
 import android.support.annotation.GuardedBy;
 import android.support.annotation.Nullable;
@@ -27,8 +28,10 @@ import android.text.TextUtils;
 import com.android.volley.VolleyLog.MarkerLog;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Base class for all network requests.
@@ -37,6 +40,9 @@ import java.util.Map;
  */
 public abstract class Request<T> implements Comparable<Request<T>> {
 
+    /** Value of {@link #getDeadline()} for requests without a deadline. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     /** Default encoding for POST or PUT parameters. See {@link #getParamsEncoding()}. */
     private static final String DEFAULT_PARAMS_ENCODING = "UTF-8";
 
@@ -89,6 +95,15 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** Sequence number of this request, used to enforce FIFO ordering. */
     private Integer mSequence;
 
+    /** Time this request was added to its queue, in elapsed realtime milliseconds. */
+    private volatile long mEnqueueTimeMs;
+
+    /** Absolute deadline in elapsed realtime milliseconds, or {@link #NO_DEADLINE}. */
+    private volatile long mDeadlineMs = NO_DEADLINE;
+
+    /** Deadline relative to the time this request is added to a queue, or 0 for none. */
+    private volatile long mDeadlineAfterAddMs = 0;
+
     /** The request queue this request is associated with. */
     private RequestQueue mRequestQueue;
 
@@ -107,6 +122,30 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** Whether the request should be retried in the event of an HTTP 5xx (server) error. */
     private boolean mShouldRetryServerErrors = false;
 
+    /** Whether the response body may be handed to the parser in a pooled buffer. */
+    private boolean mShouldUsePooledResponseBuffer = false;
+
+    /** Whether an interrupted download of the response body may be resumed. */
+    private boolean mShouldResumeDownload = false;
+
+    /** Receives download progress, or null. */
+    @Nullable private volatile Response.ProgressListener mProgressListener;
+
+    /** Minimum number of bytes read between calls to {@link #mProgressListener}. */
+    private volatile int mProgressIntervalBytes;
+
+    /** Receives the response body while it is read, or null. */
+    @Nullable private volatile Response.PartialBodyListener mPartialBodyListener;
+
+    /** Body sizes at which {@link #mPartialBodyListener} is called, in ascending order. */
+    private volatile int[] mPartialBodyThresholds = new int[0];
+
+    /** Delivery of the dispatcher performing this request, for intermediate responses. */
+    @Nullable private volatile ResponseDelivery mNetworkDelivery;
+
+    /** Where responses and errors are delivered, or null to use the queue's delivery. */
+    @Nullable private Executor mDeliveryExecutor;
+
     /** The retry policy for this request. */
     private RetryPolicy mRetryPolicy;
 
@@ -124,6 +163,11 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     @GuardedBy("mLock")
     private NetworkRequestCompleteListener mRequestCompleteListener;
 
+    /** Publisher of this request's results, created on first use. */
+    @Nullable
+    @GuardedBy("mLock")
+    private ResponsePublisher<T> mResponsePublisher;
+
     /**
      * Creates a new request with the given URL and error listener. Note that the normal response
      * listener is not provided here as delivery of responses is provided by subclasses, who have a
@@ -164,6 +208,9 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     public Request<?> setTag(Object tag) {
         mTag = tag;
+        if (mRequestQueue != null) {
+            mRequestQueue.onTagChanged(this);
+        }
         return this;
     }
 
@@ -229,6 +276,13 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         if (mRequestQueue != null) {
             mRequestQueue.finish(this);
         }
+        ResponsePublisher<T> publisher;
+        synchronized (mLock) {
+            publisher = mResponsePublisher;
+        }
+        if (publisher != null) {
+            publisher.finish(isCanceled() ? new CanceledError() : null);
+        }
         if (MarkerLog.ENABLED) {
             final long threadId = Thread.currentThread().getId();
             if (Looper.myLooper() != Looper.getMainLooper()) {
@@ -286,6 +340,22 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mSequence;
     }
 
+    /** Records when this request was added to a {@link RequestQueue}. */
+    final void setEnqueueTimeMs(long enqueueTimeMs) {
+        mEnqueueTimeMs = enqueueTimeMs;
+        if (mDeadlineAfterAddMs > 0) {
+            mDeadlineMs = enqueueTimeMs + mDeadlineAfterAddMs;
+        }
+    }
+
+    /**
+     * Returns when this request was added to a {@link RequestQueue}, in {@link
+     * android.os.SystemClock#elapsedRealtime()} milliseconds.
+     */
+    final long getEnqueueTimeMs() {
+        return mEnqueueTimeMs;
+    }
+
     /** Returns the URL of this request. */
     public String getUrl() {
         return mUrl;
@@ -337,12 +407,20 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      * </ul>
      *
      * <p>There are no guarantees if both of these conditions aren't met.
+     *
+     * <p>Subscribers of {@link #getResponsePublisher()} are signalled a {@link CanceledError} on
+     * the calling thread.
      */
     @CallSuper
     public void cancel() {
+        ResponsePublisher<T> publisher;
         synchronized (mLock) {
             mCanceled = true;
             mErrorListener = null;
+            publisher = mResponsePublisher;
+        }
+        if (publisher != null) {
+            publisher.finish(new CanceledError());
         }
     }
 
@@ -474,6 +552,22 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return null;
     }
 
+    /**
+     * Returns the POST, PUT or PATCH body to be written to the connection, or null if there is none.
+     *
+     * <p>By default this wraps the bytes returned by {@link #getBody()}. Subclasses that can produce
+     * their body incrementally, e.g. from a file, should override this method to write it straight
+     * to the connection, and keep {@link #getBody()} consistent with it for stacks that need the
+     * body as a byte array.
+     *
+     * @throws AuthFailureError in the event of auth failure
+     */
+    @Nullable
+    public RequestBody getRequestBody() throws AuthFailureError {
+        byte[] body = getBody();
+        return body == null ? null : RequestBody.create(body);
+    }
+
     /** Converts <code>params</code> into an application/x-www-form-urlencoded encoded string. */
     private byte[] encodeParameters(Map<String, String> params, String paramsEncoding) {
         StringBuilder encodedParams = new StringBuilder();
@@ -530,6 +624,132 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldRetryServerErrors;
     }
 
+    /**
+     * Sets whether successful response bodies may be read into a pooled buffer instead of an
+     * exact-size copy.
+     *
+     * <p>When enabled, {@link NetworkResponse#data} passed to {@link
+     * #parseNetworkResponse(NetworkResponse)} may be longer than the body, so the parser must only
+     * read the first {@link NetworkResponse#dataLength} bytes and must not keep a reference to the
+     * array after returning; the buffer is recycled once parsing is done. The canned requests in
+     * the toolbox package all honor this.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setShouldUsePooledResponseBuffer(boolean shouldUsePooledBuffer) {
+        mShouldUsePooledResponseBuffer = shouldUsePooledBuffer;
+        return this;
+    }
+
+    /** Returns true if response bodies for this request may be read into a pooled buffer. */
+    public final boolean shouldUsePooledResponseBuffer() {
+        return mShouldUsePooledResponseBuffer;
+    }
+
+    /**
+     * Sets whether an interrupted download of the response body may be resumed on retry rather
+     * than started over. Only applies to GET requests on a {@link
+     * com.android.volley.toolbox.BasicNetwork} with a {@link
+     * com.android.volley.toolbox.PartialResponseStore}, and only to responses that carry an ETag or
+     * Last-Modified header. Worthwhile for large bodies, since the body is written to disk as it
+     * is read.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setShouldResumeDownload(boolean shouldResumeDownload) {
+        mShouldResumeDownload = shouldResumeDownload;
+        return this;
+    }
+
+    /** Returns true if an interrupted download of the response body may be resumed. */
+    public final boolean shouldResumeDownload() {
+        return mShouldResumeDownload;
+    }
+
+    /**
+     * Sets a listener for the progress of reading the response body. It is called on the network
+     * thread from the read loop, so it must be quick, and at most once per {@code intervalBytes}
+     * read, plus once when the body is complete.
+     *
+     * @param listener the listener, or null to remove it
+     * @param intervalBytes minimum number of bytes read between calls
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setProgressListener(
+            @Nullable Response.ProgressListener listener, int intervalBytes) {
+        if (intervalBytes <= 0) {
+            throw new IllegalArgumentException("intervalBytes must be positive");
+        }
+        mProgressIntervalBytes = intervalBytes;
+        mProgressListener = listener;
+        return this;
+    }
+
+    /** Returns the listener set with {@link #setProgressListener}, if any. */
+    @Nullable
+    public final Response.ProgressListener getProgressListener() {
+        return mProgressListener;
+    }
+
+    /** Returns the minimum number of bytes read between progress callbacks. */
+    public final int getProgressIntervalBytes() {
+        return mProgressIntervalBytes;
+    }
+
+    /**
+     * Sets a listener that is handed the response body read so far, on the network thread, once
+     * the body reaches each of the given sizes. Several sizes reached by one read result in a
+     * single call. Used together with {@link #postIntermediateResponse(Object)}, this lets a
+     * request show something before a large body has been read completely.
+     *
+     * @param listener the listener, or null to remove it
+     * @param thresholdBytes body sizes at which to call the listener
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setPartialBodyListener(
+            @Nullable Response.PartialBodyListener listener, int... thresholdBytes) {
+        int[] thresholds = thresholdBytes.clone();
+        Arrays.sort(thresholds);
+        if (thresholds.length > 0 && thresholds[0] <= 0) {
+            throw new IllegalArgumentException("thresholdBytes must be positive");
+        }
+        mPartialBodyThresholds = thresholds;
+        mPartialBodyListener = listener;
+        return this;
+    }
+
+    /** Returns the listener set with {@link #setPartialBodyListener}, if any. */
+    @Nullable
+    public final Response.PartialBodyListener getPartialBodyListener() {
+        return mPartialBodyListener;
+    }
+
+    /** Returns the body sizes at which the partial body listener is called, in ascending order. */
+    public final int[] getPartialBodyThresholds() {
+        return mPartialBodyThresholds.clone();
+    }
+
+    /**
+     * Sets where {@link #deliverResponse(Object)} and {@link #deliverError(VolleyError)} run for
+     * this request, overriding the {@link ExecutorDelivery} of the queue, e.g. {@link
+     * ExecutorDelivery#DIRECT_EXECUTOR} to deliver on the dispatcher thread or {@link
+     * ExecutorDelivery#mainThreadExecutor()}. Has no effect with other {@link ResponseDelivery}
+     * implementations.
+     *
+     * @param executor the executor to deliver on, or null to use the queue's delivery
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setDeliveryExecutor(@Nullable Executor executor) {
+        mDeliveryExecutor = executor;
+        return this;
+    }
+
+    /** Returns the executor set with {@link #setDeliveryExecutor(Executor)}, if any. */
+    @Nullable
+    public final Executor getDeliveryExecutor() {
+        return mDeliveryExecutor;
+    }
+
     /**
      * Priority values. Requests will be processed from higher priorities to lower priorities, in
      * FIFO order.
@@ -552,7 +772,65 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      * remaining, this will cause delivery of a {@link TimeoutError} error.
      */
     public final int getTimeoutMs() {
-        return getRetryPolicy().getCurrentTimeout();
+        int timeoutMs = getRetryPolicy().getCurrentTimeout();
+        if (mDeadlineMs == NO_DEADLINE) {
+            return timeoutMs;
+        }
+        // Don't let a single attempt outlive the deadline.
+        return (int) Math.max(1, Math.min(timeoutMs, getRemainingTimeMs()));
+    }
+
+    /**
+     * Sets a time after which the caller no longer needs a response. Once it has passed, the
+     * request is dropped instead of being dispatched or retried, and a {@link
+     * DeadlineExceededError} is delivered.
+     *
+     * @param deadlineMs deadline in {@link android.os.SystemClock#elapsedRealtime()} milliseconds
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setDeadline(long deadlineMs) {
+        mDeadlineAfterAddMs = 0;
+        mDeadlineMs = deadlineMs;
+        return this;
+    }
+
+    /**
+     * Sets a deadline relative to the time this request is added to a {@link RequestQueue}. See
+     * {@link #setDeadline(long)}.
+     *
+     * @param timeoutMs how long after being added the request is still wanted, in milliseconds
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setDeadlineAfterAdd(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs must be positive");
+        }
+        mDeadlineAfterAddMs = timeoutMs;
+        mDeadlineMs = NO_DEADLINE;
+        return this;
+    }
+
+    /**
+     * Returns the deadline in {@link android.os.SystemClock#elapsedRealtime()} milliseconds, or
+     * {@link #NO_DEADLINE} if there is none or it is relative and the request hasn't been added to
+     * a queue yet.
+     */
+    public final long getDeadline() {
+        return mDeadlineMs;
+    }
+
+    /** Returns the time left until the deadline in milliseconds, or {@link Long#MAX_VALUE}. */
+    public final long getRemainingTimeMs() {
+        long deadlineMs = mDeadlineMs;
+        if (deadlineMs == NO_DEADLINE) {
+            return Long.MAX_VALUE;
+        }
+        return deadlineMs - SystemClock.elapsedRealtime();
+    }
+
+    /** Returns true if this request has a deadline and it has passed. */
+    public final boolean isPastDeadline() {
+        return getRemainingTimeMs() <= 0;
     }
 
     /** Returns the retry policy that should be used for this request. */
@@ -624,6 +902,88 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         }
     }
 
+    /**
+     * Returns the publisher of this request's results, for consumers that want each partial,
+     * cached and refreshed result with backpressure rather than a single listener call.
+     */
+    public ResponsePublisher<T> getResponsePublisher() {
+        synchronized (mLock) {
+            if (mResponsePublisher == null) {
+                mResponsePublisher = new ResponsePublisher<>();
+            }
+            return mResponsePublisher;
+        }
+    }
+
+    /**
+     * Emits an incomplete result to subscribers of {@link #getResponsePublisher()}, e.g. from
+     * {@link #parseNetworkResponse(NetworkResponse)} while a large body is being processed.
+     * Subscribers are signalled on the calling thread. Does nothing if there are no subscribers.
+     */
+    protected final void publishPartialResponse(T partial) {
+        ResponsePublisher<T> publisher;
+        synchronized (mLock) {
+            publisher = mResponsePublisher;
+        }
+        if (publisher != null) {
+            publisher.publish(ResponsePublisher.Kind.PARTIAL, partial);
+        }
+    }
+
+    /**
+     * Delivers an incomplete result to the listener while the request is still being performed
+     * on the network, e.g. a preview from a {@link Response.PartialBodyListener}. The response is
+     * marked {@link Response#intermediate}, so the request stays active and the final response or
+     * error follows. Does nothing if the request isn't being performed by a {@link
+     * NetworkDispatcher} or has been canceled.
+     */
+    protected final void postIntermediateResponse(T result) {
+        ResponseDelivery delivery = mNetworkDelivery;
+        if (delivery == null || isCanceled()) {
+            return;
+        }
+        Response<T> response = Response.success(result, null);
+        response.intermediate = true;
+        delivery.postResponse(this, response);
+    }
+
+    /** Sets the delivery used by {@link #postIntermediateResponse(Object)}. */
+    /* package */ void setNetworkDelivery(@Nullable ResponseDelivery delivery) {
+        mNetworkDelivery = delivery;
+    }
+
+    /** Emits a delivered response or error to subscribers of {@link #getResponsePublisher()}. */
+    /* package */ void publishResponse(Response<T> response) {
+        ResponsePublisher<T> publisher;
+        synchronized (mLock) {
+            publisher = mResponsePublisher;
+        }
+        if (publisher == null) {
+            return;
+        }
+        if (!response.isSuccess()) {
+            publisher.finish(response.error);
+        } else if (response.intermediate) {
+            publisher.publish(ResponsePublisher.Kind.INTERMEDIATE, response.result);
+        } else {
+            publisher.publish(ResponsePublisher.Kind.FINAL, response.result);
+        }
+    }
+
+    /**
+     * Emits the result already delivered as {@link ResponsePublisher.Kind#FINAL}, once the server
+     * has confirmed that the soft-expired cache hit it came from is still current.
+     */
+    /* package */ void publishNotModified() {
+        ResponsePublisher<T> publisher;
+        synchronized (mLock) {
+            publisher = mResponsePublisher;
+        }
+        if (publisher != null) {
+            publisher.publishLatestAsFinal();
+        }
+    }
+
     /**
      * {@link NetworkRequestCompleteListener} that will receive callbacks when the request returns
      * from the network.
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a POST, PUT or PATCH request, written directly to the connection's output stream.
+ *
+ * <p>Stacks call {@link #contentLength()} before {@link #writeTo(OutputStream)} so that a known
+ * length can be sent with fixed-length streaming instead of being buffered first. A new body is
+ * obtained from {@link Request#getRequestBody()} for every attempt, so implementations only need
+ * to support being written once.
+ */
+public abstract class RequestBody {
+
+    /** Returns the number of bytes {@link #writeTo(OutputStream)} will write, or -1 if unknown. */
+    public abstract long contentLength();
+
+    /**
+     * Writes the body to the given stream. Implementations must not close the stream.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Returns whether the body is produced as it is written rather than already held in memory.
+     *
+     * <p>Stacks only send streaming bodies in fixed-length mode. In-memory bodies are left to the
+     * stack to buffer, which lets it resend them after an auth challenge or a redirect.
+     */
+    public boolean isStreaming() {
+        return true;
+    }
+
+    /** Returns a body that writes the given bytes. The array is not copied. */
+    public static RequestBody create(final byte[] content) {
+        return new RequestBody() {
+            @Override
+            public long contentLength() {
+                return content.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(content);
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return false;
+            }
+        };
+    }
+}
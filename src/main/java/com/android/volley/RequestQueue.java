@@ -18,15 +18,20 @@ package com.android.volley;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.GuardedBy;
 import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A request dispatch queue with a thread pool of dispatchers.
@@ -88,6 +93,21 @@ public class RequestQueue {
         void onRequestEvent(Request<?> request, @RequestEvent int event);
     }
 
+    /** What {@link #add(Request)} does when the queue is at capacity. */
+    public enum OverflowPolicy {
+        /** Block the calling thread until a request finishes. Never use on the main thread. */
+        BLOCK,
+        /** Fail the new request with a {@link QueueFullError}. */
+        REJECT,
+        /**
+         * Fail whichever waiting request would be dispatched last, which may be the new one, with
+         * a {@link QueueFullError}.
+         */
+        DROP_LOWEST_PRIORITY,
+        /** Fail the waiting request that was added first with a {@link QueueFullError}. */
+        DROP_OLDEST
+    }
+
     /** Used for generating monotonically-increasing sequence numbers for requests. */
     private final AtomicInteger mSequenceGenerator = new AtomicInteger();
 
@@ -95,17 +115,20 @@ public class RequestQueue {
      * The set of all requests currently being processed by this RequestQueue. A Request will be in
      * this set if it is waiting in any queue or currently being processed by any dispatcher.
      */
-    private final Set<Request<?>> mCurrentRequests = new HashSet<>();
+    private final RequestRegistry mCurrentRequests = new RequestRegistry();
 
     /** The cache triage queue. */
-    private final PriorityBlockingQueue<Request<?>> mCacheQueue = new PriorityBlockingQueue<>();
+    private final PriorityBlockingQueue<Request<?>> mCacheQueue;
 
     /** The queue of requests that are actually going out to the network. */
-    private final PriorityBlockingQueue<Request<?>> mNetworkQueue = new PriorityBlockingQueue<>();
+    private final PriorityBlockingQueue<Request<?>> mNetworkQueue;
 
     /** Number of network request dispatcher threads to start. */
     private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
 
+    /** Initial capacity of the cache and network queues. */
+    private static final int DEFAULT_QUEUE_CAPACITY = 11;
+
     /** Cache interface for retrieving and storing responses. */
     private final Cache mCache;
 
@@ -121,10 +144,47 @@ public class RequestQueue {
     /** The cache dispatcher. */
     private CacheDispatcher mCacheDispatcher;
 
-    private final List<RequestFinishedListener> mFinishedListeners = new ArrayList<>();
+    private final List<RequestFinishedListener> mFinishedListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listeners for request life cycle events. Copied on every change so that events can be sent
+     * from any thread without locking.
+     */
+    private final List<EventSubscription> mEventListeners = new CopyOnWriteArrayList<>();
+
+    /** A listener and the events it receives. */
+    private static final class EventSubscription {
+        final RequestEventListener listener;
+
+        /** Bit {@code 1 << event} is set for every {@link RequestEvent} the listener receives. */
+        final int eventMask;
+
+        EventSubscription(RequestEventListener listener, int eventMask) {
+            this.listener = listener;
+            this.eventMask = eventMask;
+        }
+    }
+
+    /** Mask selecting every {@link RequestEvent}. */
+    private static final int ALL_EVENTS = (1 << (RequestEvent.REQUEST_FINISHED + 1)) - 1;
+
+    /**
+     * Guards admission when the queue is bounded, and is notified when a request finishes so that
+     * blocked callers of {@link #add(Request)} can retry.
+     */
+    private final Object mCapacityLock = new Object();
+
+    /** Maximum number of unfinished requests, or 0 for no limit. */
+    private volatile int mQueueCapacity = 0;
+
+    @GuardedBy("mCapacityLock")
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.REJECT;
+
+    /** Number of requests turned away because the queue was full. */
+    private final AtomicLong mRejectedCount = new AtomicLong();
 
-    /** Collection of listeners for request life cycle events. */
-    private final List<RequestEventListener> mEventListeners = new ArrayList<>();
+    /** Number of waiting requests dropped to make room for new ones. */
+    private final AtomicLong mDroppedCount = new AtomicLong();
 
     /**
      * Creates the worker pool. Processing will not begin until {@link #start()} is called.
@@ -136,10 +196,32 @@ public class RequestQueue {
      */
     public RequestQueue(
             Cache cache, Network network, int threadPoolSize, ResponseDelivery delivery) {
+        this(cache, network, threadPoolSize, delivery, /* comparator= */ null);
+    }
+
+    /**
+     * Creates the worker pool with a custom ordering of waiting requests, such as {@link
+     * PriorityAgingPolicy}. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param threadPoolSize Number of network dispatcher threads to create
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     * @param comparator Order in which waiting requests are dispatched, or null to order by
+     *     {@link Request#compareTo(Request)}
+     */
+    public RequestQueue(
+            Cache cache,
+            Network network,
+            int threadPoolSize,
+            ResponseDelivery delivery,
+            @Nullable Comparator<Request<?>> comparator) {
         mCache = cache;
         mNetwork = network;
         mDispatchers = new NetworkDispatcher[threadPoolSize];
         mDelivery = delivery;
+        mCacheQueue = new PriorityBlockingQueue<>(DEFAULT_QUEUE_CAPACITY, comparator);
+        mNetworkQueue = new PriorityBlockingQueue<>(DEFAULT_QUEUE_CAPACITY, comparator);
     }
 
     /**
@@ -214,52 +296,115 @@ public class RequestQueue {
     }
 
     /**
-     * Cancels all requests in this queue for which the given filter applies.
+     * Cancels all requests in this queue for which the given filter applies. Requests added while
+     * this runs may or may not be cancelled.
      *
      * @param filter The filtering function to use
      */
     public void cancelAll(RequestFilter filter) {
-        synchronized (mCurrentRequests) {
-            for (Request<?> request : mCurrentRequests) {
-                if (filter.apply(request)) {
-                    request.cancel();
-                }
+        for (Request<?> request : mCurrentRequests.all()) {
+            if (filter.apply(request)) {
+                request.cancel();
             }
         }
     }
 
     /**
      * Cancels all requests in this queue with the given tag. Tag must be non-null and equality is
-     * by identity.
+     * by identity. Only requests with an equal tag are visited.
      */
     public void cancelAll(final Object tag) {
         if (tag == null) {
             throw new IllegalArgumentException("Cannot cancelAll with a null tag");
         }
-        cancelAll(
-                new RequestFilter() {
-                    @Override
-                    public boolean apply(Request<?> request) {
-                        return request.getTag() == tag;
-                    }
-                });
+        for (Request<?> request : mCurrentRequests.withTag(tag)) {
+            if (request.getTag() == tag) {
+                request.cancel();
+            }
+        }
+    }
+
+    /**
+     * Limits the number of unfinished requests, i.e. requests waiting in the queue or being
+     * processed by a dispatcher.
+     *
+     * @param capacity maximum number of unfinished requests, or 0 for no limit
+     * @param policy what {@link #add(Request)} does when the limit is reached
+     */
+    public void setQueueCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        synchronized (mCapacityLock) {
+            mQueueCapacity = capacity;
+            mOverflowPolicy = policy;
+            // Let blocked callers re-check against the new limit.
+            mCapacityLock.notifyAll();
+        }
+    }
+
+    /** Returns the number of requests waiting in the queue or being processed by a dispatcher. */
+    public int getQueueDepth() {
+        return mCurrentRequests.size();
+    }
+
+    /** Returns the number of requests turned away because the queue was full. */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /** Returns the number of waiting requests dropped to make room for newer ones. */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Re-sorts a waiting request after its {@link Request#getPriority()} changed, e.g. to let an
+     * image that scrolled into view overtake prefetches. Has no effect once a dispatcher has taken
+     * the request.
+     *
+     * @return true if the request was waiting and has been re-sorted
+     */
+    public boolean reprioritize(Request<?> request) {
+        // Removing the request restores the queue's ordering invariant, which its new priority may
+        // have broken; adding it back places it by that priority.
+        if (mCacheQueue.remove(request)) {
+            mCacheQueue.add(request);
+            return true;
+        }
+        if (mNetworkQueue.remove(request)) {
+            mNetworkQueue.add(request);
+            return true;
+        }
+        return false;
     }
 
     /**
      * Adds a Request to the dispatch queue.
      *
+     * <p>If a capacity has been set with {@link #setQueueCapacity(int, OverflowPolicy)} and the
+     * queue is full, the configured {@link OverflowPolicy} applies.
+     *
      * @param request The request to service
      * @return The passed-in request
      */
     public <T> Request<T> add(Request<T> request) {
-        // Tag the request as belonging to this queue and add it to the set of current requests.
+        // Tag the request as belonging to this queue.
         request.setRequestQueue(this);
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.add(request);
-        }
 
         // Process requests in the order they are added.
         request.setSequence(getSequenceNumber());
+        request.setEnqueueTimeMs(SystemClock.elapsedRealtime());
+
+        // Add it to the set of current requests, unless there is no room for it.
+        if (mQueueCapacity > 0) {
+            if (!admit(request)) {
+                return request;
+            }
+        } else {
+            mCurrentRequests.add(request);
+        }
+
         request.addMarker("add-to-queue");
         sendRequestEvent(request, RequestEvent.REQUEST_QUEUED);
 
@@ -272,6 +417,109 @@ public class RequestQueue {
         return request;
     }
 
+    /**
+     * Adds the request to {@link #mCurrentRequests} if there is room, applying the overflow policy
+     * otherwise.
+     *
+     * @return false if the request was turned away
+     */
+    private boolean admit(Request<?> request) {
+        String rejection = null;
+        List<Request<?>> dropped = new ArrayList<>();
+        synchronized (mCapacityLock) {
+            while (rejection == null
+                    && mQueueCapacity > 0
+                    && getQueueDepth() >= mQueueCapacity) {
+                switch (mOverflowPolicy) {
+                    case BLOCK:
+                        try {
+                            mCapacityLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            rejection = "Interrupted while waiting for queue capacity";
+                        }
+                        break;
+                    case REJECT:
+                        rejection = "Request queue is full";
+                        break;
+                    case DROP_LOWEST_PRIORITY:
+                    case DROP_OLDEST:
+                        Request<?> victim = findVictim(request, mOverflowPolicy);
+                        if (victim == request) {
+                            rejection = "Request queue is full";
+                        } else if (mCacheQueue.remove(victim) || mNetworkQueue.remove(victim)) {
+                            mCurrentRequests.remove(victim);
+                            dropped.add(victim);
+                        }
+                        // Otherwise a dispatcher took it in the meantime; look again.
+                        break;
+                }
+            }
+            if (rejection == null) {
+                mCurrentRequests.add(request);
+            }
+        }
+        // Errors are posted outside the lock: with a direct executor the listeners run on this
+        // thread and may add or cancel requests themselves.
+        for (Request<?> victim : dropped) {
+            drop(victim);
+        }
+        if (rejection != null) {
+            reject(request, rejection);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the waiting request to drop under the given policy, or {@code request} itself if it
+     * should be turned away instead.
+     */
+    private Request<?> findVictim(Request<?> request, OverflowPolicy policy) {
+        Request<?> victim = policy == OverflowPolicy.DROP_LOWEST_PRIORITY ? request : null;
+        for (PriorityBlockingQueue<Request<?>> queue : Arrays.asList(mCacheQueue, mNetworkQueue)) {
+            for (Request<?> candidate : queue) {
+                if (victim == null) {
+                    victim = candidate;
+                } else if (policy == OverflowPolicy.DROP_LOWEST_PRIORITY) {
+                    // The request the queue would dispatch last.
+                    if (compareOrder(candidate, victim) > 0) {
+                        victim = candidate;
+                    }
+                } else if (candidate.getSequence() < victim.getSequence()) {
+                    victim = candidate;
+                }
+            }
+        }
+        // With nothing waiting, every unfinished request is already being processed.
+        return victim == null ? request : victim;
+    }
+
+    /** Compares two requests by the order in which the queues dispatch them. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private int compareOrder(Request<?> left, Request<?> right) {
+        Comparator<? super Request<?>> comparator = mNetworkQueue.comparator();
+        if (comparator != null) {
+            return comparator.compare(left, right);
+        }
+        return ((Request) left).compareTo(right);
+    }
+
+    private void reject(Request<?> request, String message) {
+        mRejectedCount.incrementAndGet();
+        request.addMarker("queue-full-rejected");
+        mDelivery.postError(request, new QueueFullError(message));
+    }
+
+    /** Reports a request already removed from {@link #mCurrentRequests} to make room. */
+    private void drop(Request<?> request) {
+        mDroppedCount.incrementAndGet();
+        request.addMarker("queue-full-dropped");
+        mDelivery.postError(request, new QueueFullError("Dropped to make room for a new request"));
+        // Release any duplicate requests waiting on this one's response.
+        request.notifyListenerResponseNotUsable();
+    }
+
     /**
      * Called from {@link Request#finish(String)}, indicating that processing of the given request
      * has finished.
@@ -279,52 +527,77 @@ public class RequestQueue {
     @SuppressWarnings("unchecked") // see above note on RequestFinishedListener
     <T> void finish(Request<T> request) {
         // Remove from the set of requests currently being processed.
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.remove(request);
-        }
-        synchronized (mFinishedListeners) {
-            for (RequestFinishedListener<T> listener : mFinishedListeners) {
-                listener.onRequestFinished(request);
+        mCurrentRequests.remove(request);
+        if (mQueueCapacity > 0) {
+            synchronized (mCapacityLock) {
+                mCapacityLock.notifyAll();
             }
         }
+        for (RequestFinishedListener<T> listener : mFinishedListeners) {
+            listener.onRequestFinished(request);
+        }
         sendRequestEvent(request, RequestEvent.REQUEST_FINISHED);
     }
 
+    /** Called from {@link Request#setTag(Object)} so that the tag index stays current. */
+    void onTagChanged(Request<?> request) {
+        mCurrentRequests.retag(request);
+    }
+
     /** Sends a request life cycle event to the listeners. */
     void sendRequestEvent(Request<?> request, @RequestEvent int event) {
-        synchronized (mEventListeners) {
-            for (RequestEventListener listener : mEventListeners) {
-                listener.onRequestEvent(request, event);
+        int bit = 1 << event;
+        for (EventSubscription subscription : mEventListeners) {
+            if ((subscription.eventMask & bit) != 0) {
+                subscription.listener.onRequestEvent(request, event);
             }
         }
     }
 
     /** Add a listener for request life cycle events. */
     public void addRequestEventListener(RequestEventListener listener) {
-        synchronized (mEventListeners) {
-            mEventListeners.add(listener);
+        mEventListeners.add(new EventSubscription(listener, ALL_EVENTS));
+    }
+
+    /**
+     * Add a listener for some request life cycle events only.
+     *
+     * @param listener the listener to add
+     * @param events the {@link RequestEvent} types the listener should receive
+     */
+    public void addRequestEventListener(
+            RequestEventListener listener, @RequestEvent int... events) {
+        if (events.length == 0) {
+            throw new IllegalArgumentException("At least one event type is required");
+        }
+        int eventMask = 0;
+        for (int event : events) {
+            if (event < 0 || event > RequestEvent.REQUEST_FINISHED) {
+                throw new IllegalArgumentException("Unknown request event: " + event);
+            }
+            eventMask |= 1 << event;
         }
+        mEventListeners.add(new EventSubscription(listener, eventMask));
     }
 
     /** Remove a listener for request life cycle events. */
     public void removeRequestEventListener(RequestEventListener listener) {
-        synchronized (mEventListeners) {
-            mEventListeners.remove(listener);
+        for (EventSubscription subscription : mEventListeners) {
+            if (subscription.listener.equals(listener)) {
+                mEventListeners.remove(subscription);
+                return;
+            }
         }
     }
 
     @Deprecated // Use RequestEventListener instead.
     public <T> void addRequestFinishedListener(RequestFinishedListener<T> listener) {
-        synchronized (mFinishedListeners) {
-            mFinishedListeners.add(listener);
-        }
+        mFinishedListeners.add(listener);
     }
 
     /** Remove a RequestFinishedListener. Has no effect if listener was not previously added. */
     @Deprecated // Use RequestEventListener instead.
     public <T> void removeRequestFinishedListener(RequestFinishedListener<T> listener) {
-        synchronized (mFinishedListeners) {
-            mFinishedListeners.remove(listener);
-        }
+        mFinishedListeners.remove(listener);
     }
 }
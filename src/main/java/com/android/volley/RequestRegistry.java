@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The unfinished requests of a {@link RequestQueue}, indexed by tag.
+ *
+ * <p>Adding and removing a request never takes a lock shared by all requests, so a cancel sweep
+ * does not stall dispatchers that are finishing requests. Iteration is weakly consistent: requests
+ * added or removed during a sweep may or may not be seen. Requests are grouped by tag using {@link
+ * Object#equals(Object)}; callers that need identity matching must filter the result.
+ */
+final class RequestRegistry {
+
+    /** Value stored for requests without a tag, since the map does not accept null values. */
+    private static final Object NO_TAG = new Object();
+
+    /** The requests with the same tag. */
+    private static final class TagGroup {
+        final Set<Request<?>> requests = new HashSet<>();
+
+        /** Set once the group is empty and has been unlinked from {@link #mTagGroups}. */
+        boolean retired;
+    }
+
+    /** Every registered request, mapped to the tag it is indexed under. */
+    private final ConcurrentHashMap<Request<?>, Object> mRequests = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Object, TagGroup> mTagGroups = new ConcurrentHashMap<>();
+
+    private final AtomicInteger mSize = new AtomicInteger();
+
+    /**
+     * Registers the request under its current tag.
+     *
+     * @return false if it was already registered
+     */
+    boolean add(Request<?> request) {
+        Object tag = request.getTag();
+        if (mRequests.putIfAbsent(request, tag == null ? NO_TAG : tag) != null) {
+            return false;
+        }
+        mSize.incrementAndGet();
+        if (tag != null) {
+            addToGroup(tag, request);
+        }
+        return true;
+    }
+
+    /**
+     * Unregisters the request.
+     *
+     * @return false if it was not registered
+     */
+    boolean remove(Request<?> request) {
+        Object tag = mRequests.remove(request);
+        if (tag == null) {
+            return false;
+        }
+        mSize.decrementAndGet();
+        if (tag != NO_TAG) {
+            removeFromGroup(tag, request);
+        }
+        return true;
+    }
+
+    /** Moves a registered request to the group for its current tag. */
+    void retag(Request<?> request) {
+        Object oldTag = mRequests.get(request);
+        if (oldTag == null) {
+            return;
+        }
+        Object tag = request.getTag();
+        Object newTag = tag == null ? NO_TAG : tag;
+        if (newTag.equals(oldTag) || !mRequests.replace(request, oldTag, newTag)) {
+            return;
+        }
+        if (oldTag != NO_TAG) {
+            removeFromGroup(oldTag, request);
+        }
+        if (newTag != NO_TAG) {
+            addToGroup(newTag, request);
+            // The request may have finished while it was being moved.
+            if (!mRequests.containsKey(request)) {
+                removeFromGroup(newTag, request);
+            }
+        }
+    }
+
+    /** Returns the number of registered requests. */
+    int size() {
+        return mSize.get();
+    }
+
+    /** Returns a weakly consistent view of all registered requests. */
+    Iterable<Request<?>> all() {
+        return mRequests.keySet();
+    }
+
+    /** Returns a snapshot of the registered requests whose tag equals the given one. */
+    List<Request<?>> withTag(Object tag) {
+        TagGroup group = mTagGroups.get(tag);
+        if (group == null) {
+            return new ArrayList<>(0);
+        }
+        synchronized (group) {
+            return new ArrayList<>(group.requests);
+        }
+    }
+
+    private void addToGroup(Object tag, Request<?> request) {
+        while (true) {
+            TagGroup group = mTagGroups.get(tag);
+            if (group == null) {
+                TagGroup created = new TagGroup();
+                group = mTagGroups.putIfAbsent(tag, created);
+                if (group == null) {
+                    group = created;
+                }
+            }
+            synchronized (group) {
+                if (!group.retired) {
+                    group.requests.add(request);
+                    return;
+                }
+            }
+            // The group emptied and was unlinked after we looked it up; fetch its replacement.
+        }
+    }
+
+    private void removeFromGroup(Object tag, Request<?> request) {
+        TagGroup group = mTagGroups.get(tag);
+        if (group == null) {
+            return;
+        }
+        synchronized (group) {
+            group.requests.remove(request);
+            if (group.requests.isEmpty()) {
+                group.retired = true;
+                mTagGroups.remove(tag, group);
+            }
+        }
+    }
+}
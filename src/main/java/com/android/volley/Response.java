@@ -38,6 +38,33 @@ public class Response<T> {
         void onErrorResponse(VolleyError error);
     }
 
+    /** Callback interface for download progress, see {@link Request#setProgressListener}. */
+    public interface ProgressListener {
+        /**
+         * Called on the network thread as the response body is read.
+         *
+         * @param bytesRead number of body bytes read so far
+         * @param totalBytes the response's Content-Length, or -1 if unknown
+         */
+        void onProgress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Callback interface for reading the response body as it arrives, see {@link
+     * Request#setPartialBodyListener}.
+     */
+    public interface PartialBodyListener {
+        /**
+         * Called on the network thread when the body read so far reaches one of the requested
+         * sizes.
+         *
+         * @param data buffer whose first {@code length} bytes are the body read so far. It is only
+         *     valid during the call and must not be modified.
+         * @param length number of body bytes read so far
+         */
+        void onPartialBody(byte[] data, int length);
+    }
+
     /** Returns a successful response containing the parsed result. */
     public static <T> Response<T> success(T result, Cache.Entry cacheEntry) {
         return new Response<>(result, cacheEntry);
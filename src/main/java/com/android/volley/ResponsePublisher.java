@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes the successive results of a request to subscribers that signal how many they can
+ * take, as an alternative to {@link Response.Listener}.
+ *
+ * <p>A request can produce several results: partial results while the body is still being
+ * processed (see {@link Request#publishPartialResponse(Object)}), a soft-expired cache hit
+ * delivered while the network refresh is in flight, and the final result from the cache or the
+ * network. Obtain the publisher with {@link Request#getResponsePublisher()} and subscribe before
+ * or after adding the request to a queue; late subscribers first receive the most recent result.
+ *
+ * <p>Backpressure: a subscriber receives nothing until it calls {@link Subscription#request(long)}.
+ * Since every result supersedes the previous one, results that arrive while a subscriber has no
+ * outstanding demand are conflated, i.e. only the latest one is kept for it. Errors are signalled
+ * regardless of demand; a canceled request ends with a {@link CanceledError}. Signals to a
+ * subscriber never overlap, but may come from different threads: partial results from the thread
+ * that publishes them, the cancellation error from the thread that cancels the request, the final
+ * result of a soft-expired cache hit that the server reports unchanged from the network thread,
+ * and everything else from the thread responses are delivered on.
+ *
+ * @param <T> The type of parsed response the request produces.
+ */
+public final class ResponsePublisher<T> {
+
+    /** What kind of result an {@link Update} carries. */
+    public enum Kind {
+        /** An incomplete result published while the response is still being processed. */
+        PARTIAL,
+        /**
+         * A soft-expired cache hit; a refreshed result follows, or the same result again as
+         * {@link #FINAL} if the server reports it unchanged.
+         */
+        INTERMEDIATE,
+        /** The last result: a fresh cache hit, or the network response. */
+        FINAL
+    }
+
+    /** A result emitted by the publisher. */
+    public static final class Update<T> {
+        public final Kind kind;
+        public final T result;
+
+        Update(Kind kind, T result) {
+            this.kind = kind;
+            this.result = result;
+        }
+    }
+
+    /** Receives the results of a request. */
+    public interface Subscriber<T> {
+        /** Called once, before any other signal. */
+        void onSubscribe(Subscription subscription);
+
+        /** Called at most once for every result requested. */
+        void onNext(Update<T> update);
+
+        /** Called if the request fails. No further signals follow. */
+        void onError(VolleyError error);
+
+        /** Called once the request has finished without error. No further signals follow. */
+        void onComplete();
+    }
+
+    /** A subscriber's link to the publisher. */
+    public interface Subscription {
+        /** Asks for up to {@code n} more results. {@code n} must be positive. */
+        void request(long n);
+
+        /** Stops all signals to the subscriber. Does not cancel the request. */
+        void cancel();
+    }
+
+    @GuardedBy("this")
+    private final List<SubscriptionImpl> mSubscriptions = new ArrayList<>();
+
+    /** The most recent result, replayed to new subscribers. */
+    @GuardedBy("this")
+    @Nullable
+    private Update<T> mLatest;
+
+    @GuardedBy("this")
+    private boolean mDone;
+
+    @GuardedBy("this")
+    @Nullable
+    private VolleyError mError;
+
+    ResponsePublisher() {}
+
+    /** Subscribes to results. */
+    public void subscribe(Subscriber<T> subscriber) {
+        SubscriptionImpl subscription = new SubscriptionImpl(subscriber);
+        synchronized (this) {
+            subscription.mPending = mLatest;
+            subscription.mDone = mDone;
+            subscription.mError = mError;
+            if (!mDone) {
+                mSubscriptions.add(subscription);
+            }
+        }
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /** Emits a result to every subscriber. */
+    void publish(Kind kind, T result) {
+        Update<T> update = new Update<>(kind, result);
+        List<SubscriptionImpl> subscriptions;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mLatest = update;
+            subscriptions = new ArrayList<>(mSubscriptions);
+        }
+        for (SubscriptionImpl subscription : subscriptions) {
+            subscription.offer(update);
+        }
+    }
+
+    /** Emits the most recent result again as {@link Kind#FINAL}, unless it already was. */
+    void publishLatestAsFinal() {
+        Update<T> latest;
+        synchronized (this) {
+            latest = mLatest;
+        }
+        if (latest != null && latest.kind != Kind.FINAL) {
+            publish(Kind.FINAL, latest.result);
+        }
+    }
+
+    /** Ends the stream, with an error or, if {@code error} is null, normally. */
+    void finish(@Nullable VolleyError error) {
+        List<SubscriptionImpl> subscriptions;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mError = error;
+            subscriptions = new ArrayList<>(mSubscriptions);
+            mSubscriptions.clear();
+        }
+        for (SubscriptionImpl subscription : subscriptions) {
+            subscription.terminate(error);
+        }
+    }
+
+    private synchronized void remove(SubscriptionImpl subscription) {
+        mSubscriptions.remove(subscription);
+    }
+
+    private class SubscriptionImpl implements Subscription {
+        private final Subscriber<T> mSubscriber;
+
+        @GuardedBy("this")
+        private long mDemand;
+
+        /** The latest result not yet signalled. */
+        @GuardedBy("this")
+        @Nullable
+        private Update<T> mPending;
+
+        @GuardedBy("this")
+        private boolean mDone;
+
+        @GuardedBy("this")
+        @Nullable
+        private VolleyError mError;
+
+        /** Set once onError or onComplete has been signalled, or the subscription cancelled. */
+        @GuardedBy("this")
+        private boolean mTerminated;
+
+        /** Whether a thread is currently signalling the subscriber. */
+        @GuardedBy("this")
+        private boolean mDraining;
+
+        SubscriptionImpl(Subscriber<T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                throw new IllegalArgumentException("Demand must be positive: " + n);
+            }
+            synchronized (this) {
+                mDemand = mDemand + n < 0 ? Long.MAX_VALUE : mDemand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                mTerminated = true;
+                mPending = null;
+            }
+            remove(this);
+        }
+
+        void offer(Update<T> update) {
+            synchronized (this) {
+                mPending = update;
+            }
+            drain();
+        }
+
+        void terminate(@Nullable VolleyError error) {
+            synchronized (this) {
+                mDone = true;
+                mError = error;
+                if (error != null) {
+                    // Errors don't wait for demand.
+                    mPending = null;
+                }
+            }
+            drain();
+        }
+
+        /** Signals whatever is due, unless another thread already is. */
+        void drain() {
+            synchronized (this) {
+                if (mDraining) {
+                    return;
+                }
+                mDraining = true;
+            }
+            while (true) {
+                Update<T> next = null;
+                VolleyError error;
+                synchronized (this) {
+                    if (mTerminated) {
+                        mDraining = false;
+                        return;
+                    }
+                    if (mPending != null && mDemand > 0) {
+                        next = mPending;
+                        mPending = null;
+                        mDemand--;
+                    } else if (mDone && mPending == null) {
+                        mTerminated = true;
+                    } else {
+                        mDraining = false;
+                        return;
+                    }
+                    error = mError;
+                }
+                if (next != null) {
+                    mSubscriber.onNext(next);
+                } else if (error != null) {
+                    mSubscriber.onError(error);
+                } else {
+                    mSubscriber.onComplete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Learns typical response sizes so that {@link BasicNetwork} can pre-size its output buffer and
+ * read in larger chunks.
+ *
+ * <p>Responses are grouped by host and first path segment, e.g. {@code example.com/images}. For
+ * each group a moving average and mean deviation of the body size are kept, in the same way TCP
+ * estimates round-trip times, and the output buffer for a response without a Content-Length is
+ * sized to cover most bodies seen so far. The read chunk size starts small and doubles whenever a
+ * read fills the whole chunk, i.e. while data arrives faster than it is consumed; the size
+ * reached is remembered for the next response in the group.
+ *
+ * <p>Only the most recently used groups are remembered. This class is thread-safe.
+ */
+public class AdaptiveBufferSizer {
+
+    /** Default number of URL groups to keep statistics for. */
+    public static final int DEFAULT_MAX_KEYS = 64;
+
+    /** Smallest chunk size used for reads. */
+    public static final int MIN_CHUNK_SIZE = 1024;
+
+    /** Default upper bound on the read chunk size. */
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 32 * 1024;
+
+    /** Upper bound on the initial output buffer size, so an outlier can't cause huge buffers. */
+    private static final int MAX_INITIAL_SIZE = 1024 * 1024;
+
+    /** Learned statistics for one URL group. */
+    public static class Stats {
+        /** Host and first path segment identifying the group. */
+        public final String key;
+
+        /** Moving average of the response body size, in bytes. */
+        public final long averageBytes;
+
+        /** Moving average of the deviation from {@link #averageBytes}, in bytes. */
+        public final long deviationBytes;
+
+        /** Read chunk size that the next response will start with. */
+        public final int chunkSize;
+
+        /** Number of responses observed. */
+        public final int samples;
+
+        Stats(String key, long averageBytes, long deviationBytes, int chunkSize, int samples) {
+            this.key = key;
+            this.averageBytes = averageBytes;
+            this.deviationBytes = deviationBytes;
+            this.chunkSize = chunkSize;
+            this.samples = samples;
+        }
+    }
+
+    /** Mutable per-group state. */
+    private static class Estimate {
+        long average;
+        long deviation;
+        int chunkSize = MIN_CHUNK_SIZE;
+        int samples;
+    }
+
+    private final int mMaxChunkSize;
+
+    /** Per-group estimates in access order, so the eldest entry is the least recently used. */
+    private final LinkedHashMap<String, Estimate> mEstimates;
+
+    /** Creates a sizer with the default limits. */
+    public AdaptiveBufferSizer() {
+        this(DEFAULT_MAX_KEYS, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * @param maxKeys number of URL groups to keep statistics for
+     * @param maxChunkSize upper bound on the read chunk size. {@link BasicNetwork} further caps
+     *     chunks at the size limit of its {@link ByteArrayPool}, so that they can be reused.
+     */
+    @SuppressWarnings("serial")
+    public AdaptiveBufferSizer(final int maxKeys, int maxChunkSize) {
+        mMaxChunkSize = Math.max(maxChunkSize, MIN_CHUNK_SIZE);
+        mEstimates =
+                new LinkedHashMap<String, Estimate>(16, .75f, /* accessOrder= */ true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Estimate> eldest) {
+                        return size() > maxKeys;
+                    }
+                };
+    }
+
+    /** Returns the upper bound on the read chunk size. */
+    public int getMaxChunkSize() {
+        return mMaxChunkSize;
+    }
+
+    /**
+     * Returns the initial output buffer size for a response.
+     *
+     * @param key group key from {@link #keyFor(String)}
+     * @param contentLength the response's Content-Length, or -1 if unknown
+     * @return the size to allocate, or -1 to use the default
+     */
+    public synchronized int getInitialSize(String key, int contentLength) {
+        if (contentLength > 0) {
+            return contentLength;
+        }
+        Estimate estimate = mEstimates.get(key);
+        if (estimate == null) {
+            return -1;
+        }
+        // Cover bodies up to two deviations above the average.
+        return (int) Math.min(estimate.average + 2 * estimate.deviation, MAX_INITIAL_SIZE);
+    }
+
+    /** Returns the chunk size to start reading a response in the given group with. */
+    public synchronized int getChunkSize(String key) {
+        Estimate estimate = mEstimates.get(key);
+        return estimate == null ? MIN_CHUNK_SIZE : estimate.chunkSize;
+    }
+
+    /** Returns the chunk size to use after a read filled a chunk of the given size. */
+    public int growChunkSize(int chunkSize) {
+        return Math.min(chunkSize * 2, mMaxChunkSize);
+    }
+
+    /**
+     * Records a fully read response.
+     *
+     * @param key group key from {@link #keyFor(String)}
+     * @param size body size, in bytes
+     * @param chunkSize chunk size in use when the body was finished
+     */
+    public synchronized void recordResponse(String key, long size, int chunkSize) {
+        Estimate estimate = mEstimates.get(key);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimate.average = size;
+            estimate.deviation = size / 2;
+            mEstimates.put(key, estimate);
+        } else {
+            // Gains of 1/8 and 1/4, as for TCP round-trip time estimation (RFC 6298).
+            long error = size - estimate.average;
+            estimate.average += error / 8;
+            estimate.deviation += (Math.abs(error) - estimate.deviation) / 4;
+        }
+        estimate.chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(chunkSize, mMaxChunkSize));
+        estimate.samples++;
+    }
+
+    /** Returns a snapshot of the learned statistics, least recently used group first. */
+    public synchronized List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>(mEstimates.size());
+        for (Map.Entry<String, Estimate> entry : mEstimates.entrySet()) {
+            Estimate estimate = entry.getValue();
+            stats.add(
+                    new Stats(
+                            entry.getKey(),
+                            estimate.average,
+                            estimate.deviation,
+                            estimate.chunkSize,
+                            estimate.samples));
+        }
+        return stats;
+    }
+
+    /** Forgets all learned statistics. */
+    public synchronized void clear() {
+        mEstimates.clear();
+    }
+
+    /** Returns the group key for a URL: its host and first path segment. */
+    public static String keyFor(String url) {
+        if (url == null) {
+            return "";
+        }
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int hostEnd = indexOfAny(url, "/?#", start);
+        if (hostEnd == url.length() || url.charAt(hostEnd) != '/') {
+            return url.substring(start, hostEnd);
+        }
+        int segmentEnd = indexOfAny(url, "/?#", hostEnd + 1);
+        return url.substring(start, segmentEnd);
+    }
+
+    /** Returns the index of the first of {@code chars} at or after {@code from}, or the length. */
+    private static int indexOfAny(String s, String chars, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+}
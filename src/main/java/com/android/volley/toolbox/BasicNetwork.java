@@ -17,23 +17,31 @@
 package com.android.volley.toolbox;
 
 import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Cache;
 import com.android.volley.Cache.Entry;
 import com.android.volley.ClientError;
+import com.android.volley.DeadlineExceededError;
 import com.android.volley.Header;
 import com.android.volley.Network;
 import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.NoConnectionError;
 import com.android.volley.Request;
+import com.android.volley.Request.Priority;
+import com.android.volley.Response;
 import com.android.volley.RetryPolicy;
 import com.android.volley.ServerError;
 import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
 import com.android.volley.VolleyLog;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
@@ -45,6 +53,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /** A network performing Volley requests over an {@link HttpStack}. */
 public class BasicNetwork implements Network {
@@ -54,6 +64,9 @@ public class BasicNetwork implements Network {
 
     private static final int DEFAULT_POOL_SIZE = 4096;
 
+    /** Status of a response to a range that doesn't overlap the resource, e.g. a stale part. */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
     /**
      * @deprecated Should never have been exposed in the API. This field may be removed in a future
      *     release of Volley.
@@ -64,6 +77,27 @@ public class BasicNetwork implements Network {
 
     protected final ByteArrayPool mPool;
 
+    private final AdaptiveBufferSizer mBufferSizer;
+
+    /** Bandwidth limits by request priority, indexed by {@link Priority#ordinal()}. */
+    private final AtomicReferenceArray<TokenBucket> mPriorityLimits =
+            new AtomicReferenceArray<>(Priority.values().length);
+
+    /** Bandwidth limits by request tag. */
+    private final Map<Object, TokenBucket> mTagLimits = new ConcurrentHashMap<>();
+
+    /** Where bodies of resumable downloads are kept while they are read, or null. */
+    @Nullable private volatile PartialResponseStore mPartialStore;
+
+    /** Returns pooled response buffers to {@link #mPool} once they have been parsed. */
+    private final NetworkResponse.BufferRecycler mBufferRecycler =
+            new NetworkResponse.BufferRecycler() {
+                @Override
+                public void recycle(byte[] buffer) {
+                    mPool.returnBuf(buffer);
+                }
+            };
+
     /**
      * @param httpStack HTTP stack to be used
      * @deprecated use {@link #BasicNetwork(BaseHttpStack)} instead to avoid depending on Apache
@@ -87,6 +121,7 @@ public class BasicNetwork implements Network {
         mHttpStack = httpStack;
         mBaseHttpStack = new AdaptedHttpStack(httpStack);
         mPool = pool;
+        mBufferSizer = new AdaptiveBufferSizer();
     }
 
     /** @param httpStack HTTP stack to be used */
@@ -98,21 +133,79 @@ public class BasicNetwork implements Network {
 
     /**
      * @param httpStack HTTP stack to be used
-     * @param pool a buffer pool that improves GC performance in copy operations
+     * @param pool a buffer pool that improves GC performance in copy operations. Requests using
+     *     {@link Request#setShouldUsePooledResponseBuffer(boolean)} only avoid allocations if the
+     *     pool is large enough to hold their response bodies.
      */
     public BasicNetwork(BaseHttpStack httpStack, ByteArrayPool pool) {
+        this(httpStack, pool, new AdaptiveBufferSizer());
+    }
+
+    /**
+     * @param httpStack HTTP stack to be used
+     * @param pool a buffer pool that improves GC performance in copy operations
+     * @param bufferSizer learns response sizes to pre-size read buffers
+     */
+    public BasicNetwork(
+            BaseHttpStack httpStack, ByteArrayPool pool, AdaptiveBufferSizer bufferSizer) {
         mBaseHttpStack = httpStack;
         // Populate mHttpStack for backwards compatibility, since it is a protected field. However,
         // we won't use it directly here, so clients which don't access it directly won't need to
         // depend on Apache HTTP.
         mHttpStack = httpStack;
         mPool = pool;
+        mBufferSizer = bufferSizer;
+    }
+
+    /**
+     * Limits the rate at which response bodies of requests with the given priority are read.
+     *
+     * @param priority the priority to limit
+     * @param bucket the limit, shared by all such requests, or null to remove it
+     */
+    public void setPriorityBandwidthLimit(Priority priority, @Nullable TokenBucket bucket) {
+        mPriorityLimits.set(priority.ordinal(), bucket);
+    }
+
+    /**
+     * Limits the rate at which response bodies of requests with the given tag are read. Applies
+     * in addition to any limit for the request's priority.
+     *
+     * @param tag the tag to limit, compared with {@link Object#equals(Object)}
+     * @param bucket the limit, shared by all such requests, or null to remove it
+     */
+    public void setTagBandwidthLimit(Object tag, @Nullable TokenBucket bucket) {
+        if (bucket == null) {
+            mTagLimits.remove(tag);
+        } else {
+            mTagLimits.put(tag, bucket);
+        }
+    }
+
+    /**
+     * Sets where the bodies of requests that {@link Request#shouldResumeDownload()} are kept while
+     * they are read, so that a retry can ask the server for the remaining bytes only. Typically
+     * the {@link DiskBasedCache} of the queue.
+     *
+     * @param store the store, or null to disable resuming
+     */
+    public void setPartialResponseStore(@Nullable PartialResponseStore store) {
+        mPartialStore = store;
+    }
+
+    /** Returns the sizer used for read buffers, e.g. to inspect its learned statistics. */
+    public AdaptiveBufferSizer getBufferSizer() {
+        return mBufferSizer;
     }
 
     @Override
     public NetworkResponse performRequest(Request<?> request) throws VolleyError {
         long requestStart = SystemClock.elapsedRealtime();
         while (true) {
+            if (request.isPastDeadline()) {
+                request.addMarker("network-deadline-exceeded");
+                throw new DeadlineExceededError();
+            }
             HttpResponse httpResponse = null;
             byte[] responseContents = null;
             List<Header> responseHeaders = Collections.emptyList();
@@ -120,8 +213,27 @@ public class BasicNetwork implements Network {
                 // Gather headers.
                 Map<String, String> additionalRequestHeaders =
                         getCacheHeaders(request.getCacheEntry());
+                PartialResponseStore partialStore = getPartialStore(request);
+                PartialResponseStore.Partial partial = null;
+                if (partialStore != null) {
+                    partial = partialStore.getPartial(request.getCacheKey());
+                    if (partial != null && partial.length > 0) {
+                        additionalRequestHeaders = new HashMap<>(additionalRequestHeaders);
+                        additionalRequestHeaders.put("Range", "bytes=" + partial.length + "-");
+                        additionalRequestHeaders.put("If-Range", partial.validator);
+                    }
+                }
                 httpResponse = mBaseHttpStack.executeRequest(request, additionalRequestHeaders);
                 int statusCode = httpResponse.getStatusCode();
+                if (partial != null
+                        && partial.length > 0
+                        && statusCode == HTTP_RANGE_NOT_SATISFIABLE) {
+                    // The stored part doesn't fit the resource any more. Drop it and ask for the
+                    // whole body instead; other errors keep it for the next attempt.
+                    partialStore.removePartial(request.getCacheKey());
+                    closeQuietly(httpResponse.getContent());
+                    continue;
+                }
 
                 responseHeaders = httpResponse.getHeaders();
                 // Handle cache validation.
@@ -147,9 +259,45 @@ public class BasicNetwork implements Network {
 
                 // Some responses such as 204s do not have content.  We must check.
                 InputStream inputStream = httpResponse.getContent();
+                boolean success = statusCode >= 200 && statusCode <= 299;
+                if (inputStream != null && success && partialStore != null) {
+                    responseContents =
+                            readResumable(
+                                    partialStore, partial, request, httpResponse, inputStream);
+                    // The caller sees the whole body, as if it had been fetched in one go.
+                    responseHeaders = withoutRangeHeaders(responseHeaders);
+                    long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+                    logSlowRequests(
+                            requestLifetime, request, responseContents.length, statusCode);
+                    return new NetworkResponse(
+                            HttpURLConnection.HTTP_OK,
+                            responseContents,
+                            /* notModified= */ false,
+                            requestLifetime,
+                            responseHeaders);
+                }
+                if (inputStream != null && success && request.shouldUsePooledResponseBuffer()) {
+                    // Hand the pooled buffer straight to the parser rather than copying it. Error
+                    // bodies are never pooled since they escape to callers inside VolleyErrors.
+                    PoolingByteArrayOutputStream bytes =
+                            readPooled(inputStream, httpResponse.getContentLength(), request);
+                    int length = bytes.size();
+                    byte[] buffer = bytes.detachBuffer();
+                    long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+                    logSlowRequests(requestLifetime, request, length, statusCode);
+                    return new NetworkResponse(
+                            statusCode,
+                            buffer,
+                            length,
+                            /* notModified= */ false,
+                            requestLifetime,
+                            responseHeaders,
+                            mBufferRecycler);
+                }
                 if (inputStream != null) {
                     responseContents =
-                            inputStreamToBytes(inputStream, httpResponse.getContentLength());
+                            inputStreamToBytes(
+                                    inputStream, httpResponse.getContentLength(), request);
                 } else {
                     // Add 0 byte response as a way of honestly representing a
                     // no-content request.
@@ -158,9 +306,9 @@ public class BasicNetwork implements Network {
 
                 // if the request is slow, log it.
                 long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
-                logSlowRequests(requestLifetime, request, responseContents, statusCode);
+                logSlowRequests(requestLifetime, request, responseContents.length, statusCode);
 
-                if (statusCode < 200 || statusCode > 299) {
+                if (!success) {
                     throw new IOException();
                 }
                 return new NetworkResponse(
@@ -171,6 +319,9 @@ public class BasicNetwork implements Network {
                         responseHeaders);
             } catch (SocketTimeoutException e) {
                 attemptRetryOnException("socket", request, new TimeoutError());
+            } catch (ThrottleInterruptedException e) {
+                // The thread's interrupt flag is set again; don't retry.
+                throw new NetworkError(e);
             } catch (MalformedURLException e) {
                 throw new RuntimeException("Bad URL " + request.getUrl(), e);
             } catch (IOException e) {
@@ -217,14 +368,14 @@ public class BasicNetwork implements Network {
 
     /** Logs requests that took over SLOW_REQUEST_THRESHOLD_MS to complete. */
     private void logSlowRequests(
-            long requestLifetime, Request<?> request, byte[] responseContents, int statusCode) {
+            long requestLifetime, Request<?> request, int responseLength, int statusCode) {
         if (DEBUG || requestLifetime > SLOW_REQUEST_THRESHOLD_MS) {
             VolleyLog.d(
                     "HTTP response for request=<%s> [lifetime=%d], [size=%s], "
                             + "[rc=%d], [retryCount=%s]",
                     request,
                     requestLifetime,
-                    responseContents != null ? responseContents.length : "null",
+                    responseLength,
                     statusCode,
                     request.getRetryPolicy().getCurrentRetryCount());
         }
@@ -248,6 +399,12 @@ public class BasicNetwork implements Network {
                     String.format("%s-timeout-giveup [timeout=%s]", logPrefix, oldTimeout));
             throw e;
         }
+        if (request.isPastDeadline()) {
+            // No budget left for another attempt.
+            request.addMarker(
+                    String.format("%s-deadline-giveup [timeout=%s]", logPrefix, oldTimeout));
+            throw exception;
+        }
         request.addMarker(String.format("%s-retry [timeout=%s]", logPrefix, oldTimeout));
     }
 
@@ -276,21 +433,352 @@ public class BasicNetwork implements Network {
         VolleyLog.v("HTTP ERROR(%s) %d ms to fetch %s", what, (now - start), url);
     }
 
+    /** Returns the store to use for the given request's body, or null if it can't be resumed. */
+    @Nullable
+    private PartialResponseStore getPartialStore(Request<?> request) {
+        PartialResponseStore store = mPartialStore;
+        if (store == null
+                || !request.shouldResumeDownload()
+                || request.getMethod() != Request.Method.GET) {
+            return null;
+        }
+        return store;
+    }
+
+    /**
+     * Reads a successful response body while saving it to the partial store, so that it can be
+     * resumed if reading fails. A 206 response is appended to the stored part of the body; any
+     * other response replaces it. The body is written straight to the store and read back once
+     * complete, so that only the final byte[] is held in memory, unless the request wants partial
+     * bodies. The stored body is removed once it is complete.
+     */
+    private byte[] readResumable(
+            PartialResponseStore store,
+            @Nullable PartialResponseStore.Partial partial,
+            Request<?> request,
+            HttpResponse httpResponse,
+            InputStream in)
+            throws IOException, ServerError {
+        String key = request.getCacheKey();
+        String sizeKey = AdaptiveBufferSizer.keyFor(request.getUrl());
+        int contentLength = httpResponse.getContentLength();
+        List<Header> headers = httpResponse.getHeaders();
+        boolean inMemory = request.getPartialBodyListener() != null;
+        PoolingByteArrayOutputStream bytes = null;
+        OutputStream partialOut;
+        try {
+            if (httpResponse.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) {
+                if (partial == null || getRangeStart(headers) != partial.length) {
+                    // Not the range we asked for; start over on the next attempt.
+                    store.removePartial(key);
+                    throw new IOException("Unexpected Content-Range for " + request.getUrl());
+                }
+                if (inMemory) {
+                    // Partial bodies are reported from the start of the body.
+                    bytes =
+                            new PoolingByteArrayOutputStream(
+                                    mPool, (int) partial.length + Math.max(contentLength, 0));
+                    InputStream stored = store.openPartial(key);
+                    try {
+                        copy(stored, bytes, partial.length);
+                    } finally {
+                        stored.close();
+                    }
+                }
+                partialOut = store.appendPartial(key);
+            } else {
+                String validator = getHeader(headers, "ETag");
+                if (validator == null) {
+                    validator = getHeader(headers, "Last-Modified");
+                }
+                if (validator == null) {
+                    // Without a validator the server can't tell us whether a range is current.
+                    store.removePartial(key);
+                    return inputStreamToBytes(in, contentLength, request);
+                }
+                if (inMemory) {
+                    bytes =
+                            new PoolingByteArrayOutputStream(
+                                    mPool, mBufferSizer.getInitialSize(sizeKey, contentLength));
+                }
+                partialOut = store.startPartial(key, validator);
+            }
+        } catch (IOException e) {
+            if (bytes != null) {
+                bytes.close();
+            }
+            closeQuietly(in);
+            throw e;
+        }
+        boolean closed = false;
+        try {
+            if (bytes != null) {
+                copyAndClose(
+                        new TeeInputStream(in, partialOut), bytes, sizeKey, request, contentLength);
+            } else {
+                copyAndClose(in, partialOut, sizeKey, request, contentLength);
+            }
+            closed = true;
+            partialOut.close();
+            byte[] data = bytes != null ? bytes.toByteArray() : readPartial(store, key);
+            store.removePartial(key);
+            return data;
+        } finally {
+            if (bytes != null) {
+                bytes.close();
+            }
+            if (!closed) {
+                try {
+                    partialOut.close();
+                } catch (IOException e) {
+                    VolleyLog.v("Error occurred when closing partial body");
+                }
+            }
+        }
+    }
+
+    /** Reads a complete body back from the partial store. */
+    private static byte[] readPartial(PartialResponseStore store, String key) throws IOException {
+        PartialResponseStore.Partial partial = store.getPartial(key);
+        if (partial == null || partial.length > Integer.MAX_VALUE) {
+            throw new IOException("Body of " + key + " can't be read back");
+        }
+        byte[] data = new byte[(int) partial.length];
+        InputStream in = store.openPartial(key);
+        try {
+            new DataInputStream(in).readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static void closeQuietly(@Nullable InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            VolleyLog.v("Error occurred when closing InputStream");
+        }
+    }
+
+    /** Copies exactly {@code length} bytes. */
+    private void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = mPool.getBuf(AdaptiveBufferSizer.MIN_CHUNK_SIZE);
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    throw new IOException("Partial body is shorter than expected");
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            mPool.returnBuf(buffer);
+        }
+    }
+
+    /** Returns the first byte position of a Content-Range header, or -1. */
+    private static long getRangeStart(List<Header> headers) {
+        // Content-Range: bytes <start>-<end>/<length>
+        String range = getHeader(headers, "Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private static String getHeader(List<Header> headers, String name) {
+        for (Header header : headers) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /** Drops the headers that describe a range rather than the whole body. */
+    private static List<Header> withoutRangeHeaders(List<Header> headers) {
+        List<Header> result = new ArrayList<>(headers.size());
+        for (Header header : headers) {
+            if (!"Content-Range".equalsIgnoreCase(header.getName())
+                    && !"Content-Length".equalsIgnoreCase(header.getName())) {
+                result.add(header);
+            }
+        }
+        return result;
+    }
+
+    /** Thrown when the thread is interrupted while a read is throttled. */
+    @SuppressWarnings("serial")
+    private static class ThrottleInterruptedException extends InterruptedIOException {
+        ThrottleInterruptedException() {
+            super("Interrupted while throttled");
+        }
+    }
+
+    /** Writes everything read from a stream to a second stream. */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream mCopy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCopy.write(buffer, offset, read);
+            }
+            return read;
+        }
+    }
+
     /** Reads the contents of an InputStream into a byte[]. */
-    private byte[] inputStreamToBytes(InputStream in, int contentLength)
+    private byte[] inputStreamToBytes(InputStream in, int contentLength, Request<?> request)
+            throws IOException, ServerError {
+        String sizeKey = AdaptiveBufferSizer.keyFor(request.getUrl());
+        PoolingByteArrayOutputStream bytes =
+                new PoolingByteArrayOutputStream(
+                        mPool, mBufferSizer.getInitialSize(sizeKey, contentLength));
+        try {
+            copyAndClose(in, bytes, sizeKey, request, contentLength);
+            return bytes.toByteArray();
+        } finally {
+            bytes.close();
+        }
+    }
+
+    /**
+     * Reads the contents of an InputStream into a pooled stream whose buffer the caller will
+     * detach. The stream is closed if reading fails.
+     */
+    private PoolingByteArrayOutputStream readPooled(
+            InputStream in, int contentLength, Request<?> request)
+            throws IOException, ServerError {
+        String sizeKey = AdaptiveBufferSizer.keyFor(request.getUrl());
+        PoolingByteArrayOutputStream bytes =
+                new PoolingByteArrayOutputStream(
+                        mPool, mBufferSizer.getInitialSize(sizeKey, contentLength));
+        boolean success = false;
+        try {
+            copyAndClose(in, bytes, sizeKey, request, contentLength);
+            success = true;
+            return bytes;
+        } finally {
+            if (!success) {
+                bytes.close();
+            }
+        }
+    }
+
+    /**
+     * Copies the contents of an InputStream into the given stream, then closes the input. The read
+     * chunk grows while reads keep filling it, and the result is recorded in {@link
+     * #mBufferSizer}. Progress is reported to the request's listener, and so is the partial body
+     * if it is read into a {@link PoolingByteArrayOutputStream}. Reads are throttled by any
+     * bandwidth limits that apply to the request.
+     */
+    private void copyAndClose(
+            InputStream in,
+            OutputStream out,
+            String sizeKey,
+            Request<?> request,
+            int contentLength)
             throws IOException, ServerError {
-        PoolingByteArrayOutputStream bytes = new PoolingByteArrayOutputStream(mPool, contentLength);
         byte[] buffer = null;
         try {
             if (in == null) {
                 throw new ServerError();
             }
-            buffer = mPool.getBuf(1024);
+            Response.ProgressListener progressListener = request.getProgressListener();
+            int progressInterval = request.getProgressIntervalBytes();
+            Response.PartialBodyListener partialBodyListener = request.getPartialBodyListener();
+            int[] partialBodyThresholds = request.getPartialBodyThresholds();
+            int nextThreshold = 0;
+            Priority priority = request.getPriority();
+            TokenBucket priorityLimit =
+                    priority == null ? null : mPriorityLimits.get(priority.ordinal());
+            Object tag = request.getTag();
+            TokenBucket tagLimit = tag == null ? null : mTagLimits.get(tag);
+            PoolingByteArrayOutputStream bytes =
+                    out instanceof PoolingByteArrayOutputStream
+                            ? (PoolingByteArrayOutputStream) out
+                            : null;
+            long totalBytes = contentLength > 0 ? contentLength : -1;
+            // Chunks the pool can't keep would be allocated afresh for every response.
+            int maxChunkSize =
+                    Math.min(
+                            mBufferSizer.getMaxChunkSize(),
+                            Math.max(mPool.getSizeLimit(), AdaptiveBufferSizer.MIN_CHUNK_SIZE));
+            int chunkSize = Math.min(mBufferSizer.getChunkSize(sizeKey), maxChunkSize);
+            buffer = mPool.getBuf(chunkSize);
+            long total = 0;
+            long reported = 0;
             int count;
             while ((count = in.read(buffer)) != -1) {
-                bytes.write(buffer, 0, count);
+                out.write(buffer, 0, count);
+                total += count;
+                try {
+                    if (priorityLimit != null) {
+                        priorityLimit.acquire(count);
+                    }
+                    if (tagLimit != null) {
+                        tagLimit.acquire(count);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ThrottleInterruptedException();
+                }
+                if (progressListener != null && total - reported >= progressInterval) {
+                    progressListener.onProgress(total, totalBytes);
+                    reported = total;
+                }
+                if (partialBodyListener != null
+                        && bytes != null
+                        && nextThreshold < partialBodyThresholds.length
+                        && total >= partialBodyThresholds[nextThreshold]) {
+                    do {
+                        nextThreshold++;
+                    } while (nextThreshold < partialBodyThresholds.length
+                            && total >= partialBodyThresholds[nextThreshold]);
+                    partialBodyListener.onPartialBody(bytes.getBuffer(), bytes.size());
+                }
+                if (count == buffer.length && chunkSize < maxChunkSize) {
+                    // The stream is delivering data faster than we consume it; read more at once.
+                    chunkSize = Math.min(mBufferSizer.growChunkSize(chunkSize), maxChunkSize);
+                    mPool.returnBuf(buffer);
+                    buffer = mPool.getBuf(chunkSize);
+                }
             }
-            return bytes.toByteArray();
+            if (progressListener != null && total != reported) {
+                progressListener.onProgress(total, totalBytes);
+            }
+            mBufferSizer.recordResponse(sizeKey, total, chunkSize);
         } finally {
             try {
                 // Close the InputStream and release the resources by "consuming the content".
@@ -303,7 +791,6 @@ public class BasicNetwork implements Network {
                 VolleyLog.v("Error occurred when closing InputStream");
             }
             mPool.returnBuf(buffer);
-            bytes.close();
         }
     }
 
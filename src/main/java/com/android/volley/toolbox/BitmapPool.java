@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.graphics.Bitmap;
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A pool of mutable bitmaps, keyed by size and config, that {@link ImageRequest} decodes into
+ * instead of allocating a new bitmap for every image.
+ *
+ * <p>Bitmaps are fed to the pool once nothing draws them any more, e.g. by {@link ImageLoader}
+ * when its {@link ImageLoader.ImageCache} has evicted a bitmap and no view shows it. When the
+ * pooled bitmaps exceed the byte budget, the ones pooled longest ago are dropped. This class is
+ * thread-safe.
+ */
+public class BitmapPool {
+
+    /** Size and config of the bitmaps in one bucket. */
+    private static class Key {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * width + height;
+            return 31 * result + (config == null ? 0 : config.hashCode());
+        }
+    }
+
+    private final int mMaxBytes;
+
+    /** Pooled bitmaps by size and config, most recently pooled last. */
+    @GuardedBy("this")
+    private final Map<Key, LinkedList<Bitmap>> mBuckets = new HashMap<>();
+
+    /** Keys of all pooled bitmaps in the order they were pooled, for evicting the oldest. */
+    @GuardedBy("this")
+    private final LinkedList<Key> mOrder = new LinkedList<>();
+
+    @GuardedBy("this")
+    private int mCurrentBytes;
+
+    @GuardedBy("this")
+    private int mHitCount;
+
+    @GuardedBy("this")
+    private int mMissCount;
+
+    /** @param maxBytes maximum combined size of the pooled bitmaps */
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a pooled bitmap with exactly the given size and config, removing it from the pool,
+     * or null if there is none. The returned bitmap's pixels are undefined.
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Key key = new Key(width, height, config);
+        LinkedList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null || bucket.isEmpty()) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = bucket.removeLast();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(key);
+        }
+        mOrder.removeLastOccurrence(key);
+        mCurrentBytes -= sizeOf(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap to the pool. Bitmaps that are immutable, recycled or larger than the whole
+     * budget are ignored. The caller must not draw or modify the bitmap afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        int size = sizeOf(bitmap);
+        if (size > mMaxBytes) {
+            return;
+        }
+        Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        LinkedList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.addLast(bitmap);
+        mOrder.addLast(key);
+        mCurrentBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /** Drops all pooled bitmaps. */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /** Drops the oldest pooled bitmaps until the pool holds at most the given number of bytes. */
+    private void trimToSize(int maxBytes) {
+        while (mCurrentBytes > maxBytes && !mOrder.isEmpty()) {
+            Key key = mOrder.removeFirst();
+            LinkedList<Bitmap> bucket = mBuckets.get(key);
+            Bitmap bitmap = bucket.removeFirst();
+            if (bucket.isEmpty()) {
+                mBuckets.remove(key);
+            }
+            mCurrentBytes -= sizeOf(bitmap);
+        }
+    }
+
+    /** Returns the budget passed to the constructor. */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /** Returns the combined size of the pooled bitmaps. */
+    public synchronized int getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    /** Returns the number of calls to {@link #get} that returned a pooled bitmap. */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of calls to {@link #get} that found no matching bitmap. */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns the number of bytes used by a bitmap's pixels. */
+    static int sizeOf(Bitmap bitmap) {
+        // getByteCount() needs API 12.
+        return bitmap.getWidth()
+                * bitmap.getHeight()
+                * DecodeScheduler.bytesPerPixel(bitmap.getConfig());
+    }
+}
@@ -78,6 +78,11 @@ public class ByteArrayPool {
         mSizeLimit = sizeLimit;
     }
 
+    /** Returns the maximum size of the pool, and so of the buffers it keeps, in bytes. */
+    /* package */ int getSizeLimit() {
+        return mSizeLimit;
+    }
+
     /**
      * Returns a buffer from the pool if one is available in the requested size, or allocates a new
      * one if a pooled one is not available.
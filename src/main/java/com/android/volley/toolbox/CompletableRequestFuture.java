@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.os.SystemClock;
+import android.support.annotation.GuardedBy;
+import com.android.volley.CanceledError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponsePublisher;
+import com.android.volley.VolleyError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Future for a Volley request that can also be observed and composed without blocking.
+ *
+ * <p>Used like {@link RequestFuture}, by providing it as the response and error listeners:
+ *
+ * <pre>
+ * CompletableRequestFuture&lt;JSONObject&gt; future = CompletableRequestFuture.newFuture();
+ * future.setRequest(requestQueue.add(new JsonObjectRequest(url, null, future, future)));
+ *
+ * future.thenApply(new CompletableRequestFuture.Function&lt;JSONObject, User&gt;() {
+ *     public User apply(JSONObject json) throws Exception {
+ *         return User.fromJson(json);
+ *     }
+ * }).addCallback(new CompletableRequestFuture.Callback&lt;User&gt;() {
+ *     public void onSuccess(User user) { ... }
+ *     public void onFailure(Throwable error) { ... }
+ * });
+ * </pre>
+ *
+ * <p>Callbacks and functions run on the thread that completes the future, which is the delivery
+ * thread of the request (by default the main thread) or the thread that cancels it, or
+ * immediately on the calling thread if the future is already complete. Cancelling a future
+ * cancels the request it was created for, and a request cancelled directly, e.g. with {@link
+ * Request#cancel()} or {@link com.android.volley.RequestQueue#cancelAll(Object)}, cancels the
+ * future. Cancelling a future returned by {@link #thenApply(Function)} or {@link #allOf(List)} also
+ * cancels each future it was created from that nothing else consumes, i.e. that has no callbacks,
+ * threads blocked in {@link #get()} or other derived futures still pending.
+ *
+ * @param <T> The type of parsed response this future expects.
+ */
+public class CompletableRequestFuture<T>
+        implements Future<T>, Response.Listener<T>, Response.ErrorListener {
+
+    /** Transforms a result; an exception thrown here fails the transformed future. */
+    public interface Function<T, R> {
+        R apply(T value) throws Exception;
+    }
+
+    /** Receives the outcome of a future. */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        /**
+         * Called with the error if the future failed, or a {@link CancellationException} if it was
+         * cancelled.
+         */
+        void onFailure(Throwable error);
+    }
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    @GuardedBy("this")
+    private int mState = PENDING;
+
+    @GuardedBy("this")
+    private T mResult;
+
+    @GuardedBy("this")
+    private Throwable mError;
+
+    /** Callbacks waiting for completion; null once complete. */
+    @GuardedBy("this")
+    private List<Callback<? super T>> mCallbacks = new ArrayList<>();
+
+    /** Cancels whatever produces this future's result. */
+    @GuardedBy("this")
+    private Runnable mCanceller;
+
+    /** Callbacks and derived futures waiting for this future, less derived futures cancelled. */
+    @GuardedBy("this")
+    private int mConsumers;
+
+    /** Threads blocked in {@link #get()}. */
+    @GuardedBy("this")
+    private int mWaiters;
+
+    private volatile Request<?> mRequest;
+
+    public static <E> CompletableRequestFuture<E> newFuture() {
+        return new CompletableRequestFuture<>();
+    }
+
+    private CompletableRequestFuture() {}
+
+    /** Sets the request whose response completes this future, so that it can be cancelled. */
+    public void setRequest(final Request<?> request) {
+        mRequest = request;
+        setCanceller(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        request.cancel();
+                    }
+                });
+        cancelWith(request);
+        if (request.isCanceled()) {
+            // Cancelled before this future subscribed, so no cancellation will be signalled.
+            complete(CANCELLED, null, new CancellationException());
+        }
+    }
+
+    /** Cancels this future once {@code request} is cancelled. */
+    private <R> void cancelWith(Request<R> request) {
+        request.getResponsePublisher()
+                .subscribe(
+                        new ResponsePublisher.Subscriber<R>() {
+                            @Override
+                            public void onSubscribe(ResponsePublisher.Subscription subscription) {
+                                // No demand: only the cancellation error is of interest, and
+                                // errors are signalled regardless.
+                            }
+
+                            @Override
+                            public void onNext(ResponsePublisher.Update<R> update) {}
+
+                            @Override
+                            public void onError(VolleyError error) {
+                                if (error instanceof CanceledError) {
+                                    complete(CANCELLED, null, new CancellationException());
+                                }
+                            }
+
+                            @Override
+                            public void onComplete() {}
+                        });
+    }
+
+    /**
+     * Returns a future completed with the result of applying {@code function} to this future's
+     * result. Failures and cancellation of this future are passed on unchanged. Cancelling the
+     * returned future cancels this one too if nothing else consumes it.
+     */
+    public <R> CompletableRequestFuture<R> thenApply(final Function<? super T, R> function) {
+        final CompletableRequestFuture<R> next = new CompletableRequestFuture<>();
+        boolean registered =
+                register(
+                        new Callback<T>() {
+                            @Override
+                            public void onSuccess(T result) {
+                                R applied;
+                                try {
+                                    applied = function.apply(result);
+                                } catch (Exception e) {
+                                    next.complete(FAILED, null, e);
+                                    return;
+                                }
+                                next.complete(SUCCEEDED, applied, null);
+                            }
+
+                            @Override
+                            public void onFailure(Throwable error) {
+                                next.complete(
+                                        error instanceof CancellationException ? CANCELLED : FAILED,
+                                        null,
+                                        error);
+                            }
+                        });
+        if (registered) {
+            next.setCanceller(releaseOnCancel(Arrays.asList(this)));
+        }
+        return next;
+    }
+
+    /**
+     * Returns a future completed with the results of all the given futures, in the same order.
+     * If any of them fails or is cancelled, the returned future does the same. Cancelling the
+     * returned future, including because one of the given futures was cancelled, cancels each of
+     * the given futures that nothing else consumes.
+     */
+    public static <T> CompletableRequestFuture<List<T>> allOf(
+            List<? extends CompletableRequestFuture<? extends T>> futures) {
+        final CompletableRequestFuture<List<T>> all = new CompletableRequestFuture<>();
+        final List<CompletableRequestFuture<? extends T>> sources = new ArrayList<>(futures);
+        final Object[] results = new Object[sources.size()];
+        final AtomicInteger remaining = new AtomicInteger(sources.size());
+        if (sources.isEmpty()) {
+            all.complete(SUCCEEDED, new ArrayList<T>(0), null);
+        }
+        List<CompletableRequestFuture<?>> registered = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            final int index = i;
+            Callback<T> callback =
+                    new Callback<T>() {
+                        @Override
+                        public void onSuccess(T result) {
+                            results[index] = result;
+                            if (remaining.decrementAndGet() == 0) {
+                                List<T> list = toList(results);
+                                all.complete(SUCCEEDED, list, null);
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Throwable error) {
+                            if (error instanceof CancellationException) {
+                                all.cancel(false);
+                            } else {
+                                all.complete(FAILED, null, error);
+                            }
+                        }
+                    };
+            if (sources.get(i).register(callback)) {
+                registered.add(sources.get(i));
+            }
+        }
+        all.setCanceller(releaseOnCancel(registered));
+        return all;
+    }
+
+    /**
+     * Registers a callback for the outcome of this future. If the future is already complete, the
+     * callback runs immediately on the calling thread.
+     *
+     * @return this future, to allow for chaining
+     */
+    public CompletableRequestFuture<T> addCallback(Callback<? super T> callback) {
+        register(callback);
+        return this;
+    }
+
+    /**
+     * Adds a callback, or runs it immediately if this future is already complete.
+     *
+     * @return true if the callback was added, counting it as a consumer of this future
+     */
+    private boolean register(Callback<? super T> callback) {
+        int state;
+        T result;
+        Throwable error;
+        synchronized (this) {
+            if (mState == PENDING) {
+                mCallbacks.add(callback);
+                mConsumers++;
+                return true;
+            }
+            state = mState;
+            result = mResult;
+            error = mError;
+        }
+        dispatch(callback, state, result, error);
+        return false;
+    }
+
+    /**
+     * Returns a canceller for a derived future that releases it as a consumer of each of {@code
+     * sources}, cancelling those left without consumers.
+     */
+    private static Runnable releaseOnCancel(
+            final List<? extends CompletableRequestFuture<?>> sources) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                for (CompletableRequestFuture<?> source : sources) {
+                    source.releaseConsumer();
+                }
+            }
+        };
+    }
+
+    /** Cancels this future if the consumer being released was the last one. */
+    private void releaseConsumer() {
+        synchronized (this) {
+            if (--mConsumers > 0 || mWaiters > 0) {
+                return;
+            }
+        }
+        cancel(false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Runnable canceller;
+        synchronized (this) {
+            canceller = mCanceller;
+        }
+        if (!complete(CANCELLED, null, new CancellationException())) {
+            return false;
+        }
+        if (canceller != null) {
+            canceller.run();
+        }
+        return true;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            return doGet(/* timeoutMs= */ null);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return doGet(TimeUnit.MILLISECONDS.convert(timeout, unit));
+    }
+
+    private synchronized T doGet(Long timeoutMs)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        mWaiters++;
+        try {
+            if (timeoutMs == null) {
+                while (!isDone()) {
+                    wait(0);
+                }
+            } else if (timeoutMs > 0) {
+                long nowMs = SystemClock.uptimeMillis();
+                long deadlineMs = nowMs + timeoutMs;
+                while (!isDone() && nowMs < deadlineMs) {
+                    wait(deadlineMs - nowMs);
+                    nowMs = SystemClock.uptimeMillis();
+                }
+            }
+        } finally {
+            mWaiters--;
+        }
+
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+        if (mState == FAILED) {
+            throw new ExecutionException(mError);
+        }
+        if (mState != SUCCEEDED) {
+            throw new TimeoutException();
+        }
+        return mResult;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        Request<?> request = mRequest;
+        return mState == CANCELLED
+                || (mState == PENDING && request != null && request.isCanceled());
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != PENDING || isCancelled();
+    }
+
+    @Override
+    public void onResponse(T response) {
+        complete(SUCCEEDED, response, null);
+    }
+
+    @Override
+    public void onErrorResponse(VolleyError error) {
+        complete(FAILED, null, error);
+    }
+
+    private synchronized void setCanceller(Runnable canceller) {
+        mCanceller = canceller;
+    }
+
+    /**
+     * Moves this future out of the pending state and runs the registered callbacks.
+     *
+     * @return false if the future was already complete
+     */
+    private boolean complete(int state, T result, Throwable error) {
+        List<Callback<? super T>> callbacks;
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = state;
+            mResult = result;
+            mError = error;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            notifyAll();
+        }
+        for (Callback<? super T> callback : callbacks) {
+            dispatch(callback, state, result, error);
+        }
+        return true;
+    }
+
+    private static <T> void dispatch(
+            Callback<? super T> callback, int state, T result, Throwable error) {
+        if (state == SUCCEEDED) {
+            callback.onSuccess(result);
+        } else {
+            callback.onFailure(error);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> List<E> toList(Object[] results) {
+        return new ArrayList<>((List<E>) Arrays.asList(results));
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+import android.widget.ImageView.ScaleType;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.Response.Listener;
+import com.android.volley.VolleyError;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A thread-safe variant of {@link ImageLoader} that may be called from any thread, e.g. by
+ * background prefetchers.
+ *
+ * <p>Concurrent loads of the same URL, size and scale type share one request. Each load delivers
+ * its result on an executor chosen by the caller; when a request completes, the loads waiting on
+ * the same executor are delivered together in a single task. Cached bitmaps are delivered through
+ * the executor as well, never synchronously. The {@link ImageLoader.ImageCache} must be
+ * thread-safe, e.g. {@link LruBitmapCache}.
+ */
+public class ConcurrentImageLoader {
+    private final RequestQueue mRequestQueue;
+
+    private final ImageLoader.ImageCache mCache;
+
+    private final Executor mDefaultExecutor;
+
+    /** Loads in flight by cache key, used to share one request between concurrent loads. */
+    private final ConcurrentHashMap<String, InFlightImage> mInFlightImages =
+            new ConcurrentHashMap<>();
+
+    /** Creates a loader that delivers on the main thread unless told otherwise. */
+    public ConcurrentImageLoader(RequestQueue queue, ImageLoader.ImageCache imageCache) {
+        this(queue, imageCache, ExecutorDelivery.mainThreadExecutor());
+    }
+
+    /**
+     * @param queue The RequestQueue to use for making image requests.
+     * @param imageCache A thread-safe cache to use as an L1 cache.
+     * @param defaultExecutor Executor to deliver results on when the caller doesn't choose one.
+     */
+    public ConcurrentImageLoader(
+            RequestQueue queue, ImageLoader.ImageCache imageCache, Executor defaultExecutor) {
+        mRequestQueue = queue;
+        mCache = imageCache;
+        mDefaultExecutor = defaultExecutor;
+    }
+
+    /** Loads an image at its natural size, delivering on the default executor. */
+    public Handle get(
+            String requestUrl, Listener<Bitmap> listener, @Nullable ErrorListener errorListener) {
+        return get(
+                requestUrl,
+                /* maxWidth= */ 0,
+                /* maxHeight= */ 0,
+                ScaleType.CENTER_INSIDE,
+                mDefaultExecutor,
+                listener,
+                errorListener);
+    }
+
+    /**
+     * Loads an image from the cache or, if it isn't cached, from the network, sharing the request
+     * with concurrent loads of the same image.
+     *
+     * @param requestUrl The url of the remote image
+     * @param maxWidth The maximum width of the returned image, or zero for none.
+     * @param maxHeight The maximum height of the returned image, or zero for none.
+     * @param scaleType The ImageViews ScaleType used to calculate the needed image size.
+     * @param executor Executor to deliver the result on.
+     * @param listener Listener to receive the bitmap
+     * @param errorListener Listener to receive errors, or null to ignore them
+     * @return A handle to cancel the load with.
+     */
+    public Handle get(
+            String requestUrl,
+            int maxWidth,
+            int maxHeight,
+            ScaleType scaleType,
+            Executor executor,
+            Listener<Bitmap> listener,
+            @Nullable ErrorListener errorListener) {
+        String cacheKey = ImageLoader.getCacheKey(requestUrl, maxWidth, maxHeight, scaleType);
+        Waiter waiter = new Waiter(executor, listener, errorListener);
+        while (true) {
+            Bitmap cachedBitmap = mCache.getBitmap(cacheKey);
+            if (cachedBitmap != null) {
+                deliver(Collections.singletonList(waiter), cachedBitmap, /* error= */ null);
+                return new Handle(waiter, /* inFlightImage= */ null);
+            }
+
+            InFlightImage inFlightImage = mInFlightImages.get(cacheKey);
+            if (inFlightImage == null) {
+                InFlightImage newImage = new InFlightImage(cacheKey);
+                newImage.add(waiter);
+                inFlightImage = mInFlightImages.putIfAbsent(cacheKey, newImage);
+                if (inFlightImage == null) {
+                    Request<Bitmap> request =
+                            makeImageRequest(
+                                    requestUrl,
+                                    maxWidth,
+                                    maxHeight,
+                                    scaleType,
+                                    newImage,
+                                    newImage);
+                    // Complete on the dispatcher thread; results go to each caller's executor.
+                    request.setDeliveryExecutor(ExecutorDelivery.DIRECT_EXECUTOR);
+                    newImage.setRequest(request);
+                    mRequestQueue.add(request);
+                    return new Handle(waiter, newImage);
+                }
+            }
+            if (inFlightImage.add(waiter)) {
+                return new Handle(waiter, inFlightImage);
+            }
+            // The load completed or was cancelled in the meantime; look again.
+            mInFlightImages.remove(cacheKey, inFlightImage);
+        }
+    }
+
+    /** Creates the request for an image. Subclasses may override it to customize the request. */
+    protected Request<Bitmap> makeImageRequest(
+            String requestUrl,
+            int maxWidth,
+            int maxHeight,
+            ScaleType scaleType,
+            Listener<Bitmap> listener,
+            ErrorListener errorListener) {
+        return new ImageRequest(
+                requestUrl,
+                listener,
+                maxWidth,
+                maxHeight,
+                scaleType,
+                Config.RGB_565,
+                errorListener);
+    }
+
+    /** Delivers a result to the given waiters, with one task per executor. */
+    private static void deliver(
+            List<Waiter> waiters,
+            @Nullable final Bitmap bitmap,
+            @Nullable final VolleyError error) {
+        Map<Executor, List<Waiter>> byExecutor = new LinkedHashMap<>();
+        for (Waiter waiter : waiters) {
+            List<Waiter> batch = byExecutor.get(waiter.mExecutor);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                byExecutor.put(waiter.mExecutor, batch);
+            }
+            batch.add(waiter);
+        }
+        for (Map.Entry<Executor, List<Waiter>> entry : byExecutor.entrySet()) {
+            final List<Waiter> batch = entry.getValue();
+            entry.getKey()
+                    .execute(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    for (Waiter waiter : batch) {
+                                        waiter.deliver(bitmap, error);
+                                    }
+                                }
+                            });
+        }
+    }
+
+    /** Handle to a load started with {@code get()}. */
+    public static class Handle {
+        private final Waiter mWaiter;
+
+        @Nullable private final InFlightImage mInFlightImage;
+
+        Handle(Waiter waiter, @Nullable InFlightImage inFlightImage) {
+            mWaiter = waiter;
+            mInFlightImage = inFlightImage;
+        }
+
+        /**
+         * Cancels the load so that its listeners won't be called, unless a delivery is already
+         * running on another thread. The request is cancelled if no other load shares it.
+         */
+        public void cancel() {
+            mWaiter.mCanceled = true;
+            if (mInFlightImage != null) {
+                mInFlightImage.remove(mWaiter);
+            }
+        }
+    }
+
+    /** A caller waiting for an image. */
+    private static class Waiter {
+        final Executor mExecutor;
+        final Listener<Bitmap> mListener;
+        @Nullable final ErrorListener mErrorListener;
+        volatile boolean mCanceled;
+
+        Waiter(
+                Executor executor,
+                Listener<Bitmap> listener,
+                @Nullable ErrorListener errorListener) {
+            mExecutor = executor;
+            mListener = listener;
+            mErrorListener = errorListener;
+        }
+
+        void deliver(@Nullable Bitmap bitmap, @Nullable VolleyError error) {
+            if (mCanceled) {
+                return;
+            }
+            if (error == null) {
+                mListener.onResponse(bitmap);
+            } else if (mErrorListener != null) {
+                mErrorListener.onErrorResponse(error);
+            }
+        }
+    }
+
+    /** A request in flight and the callers waiting for it. */
+    private class InFlightImage implements Listener<Bitmap>, ErrorListener {
+        private final String mCacheKey;
+
+        @GuardedBy("this")
+        private List<Waiter> mWaiters = new ArrayList<>();
+
+        /** Whether the request completed or was cancelled; no more waiters may be added. */
+        @GuardedBy("this")
+        private boolean mDone;
+
+        @GuardedBy("this")
+        @Nullable
+        private Request<?> mRequest;
+
+        InFlightImage(String cacheKey) {
+            mCacheKey = cacheKey;
+        }
+
+        /** Adds a waiter, returning false if it is too late to share this request. */
+        synchronized boolean add(Waiter waiter) {
+            if (mDone) {
+                return false;
+            }
+            mWaiters.add(waiter);
+            return true;
+        }
+
+        void setRequest(Request<?> request) {
+            synchronized (this) {
+                if (!mDone) {
+                    mRequest = request;
+                    return;
+                }
+            }
+            // Everyone cancelled before the request was even made.
+            request.cancel();
+        }
+
+        /** Removes a waiter, cancelling the request if it was the last one. */
+        void remove(Waiter waiter) {
+            Request<?> request;
+            synchronized (this) {
+                if (mDone || !mWaiters.remove(waiter) || !mWaiters.isEmpty()) {
+                    return;
+                }
+                mDone = true;
+                request = mRequest;
+            }
+            mInFlightImages.remove(mCacheKey, this);
+            if (request != null) {
+                request.cancel();
+            }
+        }
+
+        @Override
+        public void onResponse(Bitmap response) {
+            mCache.putBitmap(mCacheKey, response);
+            deliver(complete(), response, /* error= */ null);
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            deliver(complete(), /* bitmap= */ null, error);
+        }
+
+        /** Marks the request as done and returns the waiters to deliver to. */
+        private List<Waiter> complete() {
+            mInFlightImages.remove(mCacheKey, this);
+            synchronized (this) {
+                mDone = true;
+                List<Waiter> waiters = mWaiters;
+                mWaiters = new ArrayList<>();
+                return waiters;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.annotation.GuardedBy;
+
+/**
+ * Lets image decodes run concurrently as long as their combined pixel memory fits a budget.
+ *
+ * <p>Callers estimate the memory a decode needs, typically width * height * bytes per pixel from
+ * a bounds-only decode, and bracket the decode with {@link #acquire(long)} and {@link
+ * #release(long)}. A decode that alone exceeds the budget is still allowed to run, but only when
+ * nothing else is decoding. The time spent waiting in {@link #acquire(long)} is recorded so that
+ * the budget can be tuned. This class is thread-safe.
+ */
+public class DecodeScheduler {
+
+    private final long mBudgetBytes;
+
+    @GuardedBy("this")
+    private long mInFlightBytes;
+
+    @GuardedBy("this")
+    private long mDecodeCount;
+
+    @GuardedBy("this")
+    private long mTotalWaitMs;
+
+    @GuardedBy("this")
+    private long mMaxWaitMs;
+
+    /** Creates a scheduler with a budget of an eighth of the maximum heap size. */
+    public DecodeScheduler() {
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /** @param budgetBytes maximum combined size of the bitmaps being decoded at once */
+    public DecodeScheduler(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("budgetBytes must be positive");
+        }
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Waits until a decode needing the given number of bytes fits in the budget, then reserves
+     * them. Every successful call must be followed by {@link #release(long)} with the same size.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting; nothing is reserved
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        long startMs = SystemClock.elapsedRealtime();
+        while (mInFlightBytes > 0 && mInFlightBytes + bytes > mBudgetBytes) {
+            wait();
+        }
+        mInFlightBytes += bytes;
+        long waitMs = SystemClock.elapsedRealtime() - startMs;
+        mDecodeCount++;
+        mTotalWaitMs += waitMs;
+        mMaxWaitMs = Math.max(mMaxWaitMs, waitMs);
+    }
+
+    /** Releases bytes reserved with {@link #acquire(long)}. */
+    public synchronized void release(long bytes) {
+        mInFlightBytes -= bytes;
+        notifyAll();
+    }
+
+    /** Returns the budget passed to the constructor. */
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    /** Returns the number of bytes currently reserved by running decodes. */
+    public synchronized long getInFlightBytes() {
+        return mInFlightBytes;
+    }
+
+    /** Returns the number of decodes admitted so far. */
+    public synchronized long getDecodeCount() {
+        return mDecodeCount;
+    }
+
+    /** Returns the average time decodes waited for the budget in milliseconds, or 0 if none. */
+    public synchronized long getAverageWaitMs() {
+        return mDecodeCount == 0 ? 0 : mTotalWaitMs / mDecodeCount;
+    }
+
+    /** Returns the longest time a decode waited for the budget in milliseconds. */
+    public synchronized long getMaxWaitMs() {
+        return mMaxWaitMs;
+    }
+
+    /** Returns the number of bytes per pixel of bitmaps with the given config. */
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == null) {
+            return 4;
+        }
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
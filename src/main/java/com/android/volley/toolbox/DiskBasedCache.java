@@ -31,6 +31,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -46,15 +47,31 @@ import java.util.Map;
  * The default disk usage size is 5MB, but is configurable.
  *
  * <p>This cache supports the {@link Entry#allResponseHeaders} headers field.
+ *
+ * <p>It also stores the bodies of interrupted downloads as a {@link PartialResponseStore}. These
+ * live in separate files next to the entries and are never returned by {@link #get(String)}. They
+ * don't count towards the maximum cache size, so that a download larger than the cache can still
+ * be resumed, but have a budget of their own (see {@link #setMaxPartialSizeInBytes(long)}) within
+ * which the least recently written ones are pruned. Otherwise they are deleted once the download
+ * completes, or by {@link #clear()}.
  */
-public class DiskBasedCache implements Cache {
+public class DiskBasedCache implements Cache, PartialResponseStore {
 
     /** Map of the Key, CacheHeader pairs */
     private final Map<String, CacheHeader> mEntries = new LinkedHashMap<>(16, .75f, true);
 
+    /** Sizes of the partial bodies on disk by key, least recently written first. */
+    private final Map<String, Long> mPartialSizes = new LinkedHashMap<>();
+
     /** Total amount of space currently used by the cache in bytes. */
     private long mTotalSize = 0;
 
+    /** Total amount of space currently used by partial bodies in bytes. */
+    private long mPartialTotalSize = 0;
+
+    /** The maximum combined size of the partial bodies in bytes. */
+    private long mMaxPartialSizeInBytes = DEFAULT_PARTIAL_DISK_USAGE_BYTES;
+
     /** The root directory to use for the cache. */
     private final File mRootDirectory;
 
@@ -64,12 +81,21 @@ public class DiskBasedCache implements Cache {
     /** Default maximum disk usage in bytes. */
     private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
 
+    /** Default maximum disk usage of partial bodies in bytes. */
+    private static final long DEFAULT_PARTIAL_DISK_USAGE_BYTES = 64 * 1024 * 1024;
+
     /** High water mark percentage for the cache */
     @VisibleForTesting static final float HYSTERESIS_FACTOR = 0.9f;
 
     /** Magic number for current version of cache file format. */
     private static final int CACHE_MAGIC = 0x20150306;
 
+    /** Magic number for the partial body file format. */
+    private static final int PARTIAL_MAGIC = 0x20190521;
+
+    /** File name suffix of partial bodies. */
+    private static final String PARTIAL_SUFFIX = ".partial";
+
     /**
      * Constructs an instance of the DiskBasedCache at the specified directory.
      *
@@ -93,6 +119,14 @@ public class DiskBasedCache implements Cache {
         this(rootDirectory, DEFAULT_DISK_USAGE_BYTES);
     }
 
+    /**
+     * Sets the maximum combined size of the partial bodies, 64MB by default. The partial body
+     * being written is never pruned, even if it is larger on its own.
+     */
+    public synchronized void setMaxPartialSizeInBytes(long maxPartialSizeInBytes) {
+        mMaxPartialSizeInBytes = maxPartialSizeInBytes;
+    }
+
     /** Clears the cache. Deletes all cached files from disk. */
     @Override
     public synchronized void clear() {
@@ -103,7 +137,9 @@ public class DiskBasedCache implements Cache {
             }
         }
         mEntries.clear();
+        mPartialSizes.clear();
         mTotalSize = 0;
+        mPartialTotalSize = 0;
         VolleyLog.d("Cache cleared.");
     }
 
@@ -161,6 +197,11 @@ public class DiskBasedCache implements Cache {
             return;
         }
         for (File file : files) {
+            if (file.getName().endsWith(PARTIAL_SUFFIX)) {
+                // Incomplete downloads are not entries, but they take up space.
+                initializePartial(file);
+                continue;
+            }
             try {
                 long entrySize = file.length();
                 CountingInputStream cis =
@@ -182,6 +223,28 @@ public class DiskBasedCache implements Cache {
         }
     }
 
+    /** Records the size of a partial body found by {@link #initialize()}, or deletes it. */
+    private void initializePartial(File file) {
+        try {
+            long size = file.length();
+            CountingInputStream cis =
+                    new CountingInputStream(
+                            new BufferedInputStream(createInputStream(file)), size);
+            try {
+                if (readInt(cis) != PARTIAL_MAGIC) {
+                    throw new IOException("Not a partial body");
+                }
+                putPartialSize(readString(cis), size);
+            } finally {
+                //noinspection ThrowFromFinallyBlock
+                cis.close();
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
     /**
      * Invalidates an entry in the cache.
      *
@@ -265,6 +328,139 @@ public class DiskBasedCache implements Cache {
         return new File(mRootDirectory, getFilenameForKey(key));
     }
 
+    @Override
+    public synchronized Partial getPartial(String key) {
+        File file = getPartialFileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            CountingInputStream cis = openPartialFile(key, file);
+            try {
+                return new Partial(readString(cis), cis.bytesRemaining());
+            } finally {
+                //noinspection ThrowFromFinallyBlock
+                cis.close();
+            }
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            removePartial(key);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized InputStream openPartial(String key) throws IOException {
+        CountingInputStream cis = openPartialFile(key, getPartialFileForKey(key));
+        readString(cis);
+        return cis;
+    }
+
+    @Override
+    public synchronized OutputStream startPartial(String key, String validator)
+            throws IOException {
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            throw new IOException("Unable to create cache dir " + mRootDirectory);
+        }
+        removePartialSize(key);
+        OutputStream os =
+                new PartialOutputStream(
+                        key,
+                        new BufferedOutputStream(new FileOutputStream(getPartialFileForKey(key))));
+        try {
+            writeInt(os, PARTIAL_MAGIC);
+            writeString(os, key);
+            writeString(os, validator);
+        } catch (IOException e) {
+            os.close();
+            removePartial(key);
+            throw e;
+        }
+        return os;
+    }
+
+    @Override
+    public synchronized OutputStream appendPartial(String key) throws IOException {
+        return new PartialOutputStream(
+                key,
+                new BufferedOutputStream(
+                        new FileOutputStream(getPartialFileForKey(key), /* append= */ true)));
+    }
+
+    @Override
+    public synchronized void removePartial(String key) {
+        File file = getPartialFileForKey(key);
+        if (file.exists() && !file.delete()) {
+            VolleyLog.d("Could not delete partial body %s", file.getAbsolutePath());
+        }
+        removePartialSize(key);
+    }
+
+    /** Updates the size of a partial body after a stream writing it has been closed. */
+    private synchronized void onPartialWritten(String key) {
+        removePartialSize(key);
+        File file = getPartialFileForKey(key);
+        if (file.exists()) {
+            putPartialSize(key, file.length());
+            prunePartialsIfNeeded(key);
+        }
+    }
+
+    /** Records the size of a partial body as its most recently written one. */
+    private void putPartialSize(String key, long size) {
+        removePartialSize(key);
+        mPartialSizes.put(key, size);
+        mPartialTotalSize += size;
+    }
+
+    private void removePartialSize(String key) {
+        Long size = mPartialSizes.remove(key);
+        if (size != null) {
+            mPartialTotalSize -= size;
+        }
+    }
+
+    /**
+     * Deletes the least recently written partial bodies, except the one for {@code keepKey}, until
+     * they fit their budget.
+     */
+    private void prunePartialsIfNeeded(String keepKey) {
+        Iterator<Map.Entry<String, Long>> partials = mPartialSizes.entrySet().iterator();
+        while (partials.hasNext() && mPartialTotalSize > mMaxPartialSizeInBytes) {
+            Map.Entry<String, Long> partial = partials.next();
+            if (partial.getKey().equals(keepKey)) {
+                continue;
+            }
+            File file = getPartialFileForKey(partial.getKey());
+            if (file.exists() && !file.delete()) {
+                VolleyLog.d("Could not delete partial body %s", file.getAbsolutePath());
+            }
+            mPartialTotalSize -= partial.getValue();
+            partials.remove();
+        }
+    }
+
+    private File getPartialFileForKey(String key) {
+        return new File(mRootDirectory, getFilenameForKey(key) + PARTIAL_SUFFIX);
+    }
+
+    /** Opens a partial body file and reads its header up to the validator. */
+    private CountingInputStream openPartialFile(String key, File file) throws IOException {
+        CountingInputStream cis =
+                new CountingInputStream(
+                        new BufferedInputStream(createInputStream(file)), file.length());
+        try {
+            if (readInt(cis) != PARTIAL_MAGIC || !key.equals(readString(cis))) {
+                // Wrong format, or the file was shared by two keys.
+                throw new IOException("Not a partial body for " + key);
+            }
+        } catch (IOException e) {
+            cis.close();
+            throw e;
+        }
+        return cis;
+    }
+
     /** Prunes the cache to fit the maximum size. */
     private void pruneIfNeeded() {
         if (mTotalSize < mMaxCacheSizeInBytes) {
@@ -279,7 +475,7 @@ public class DiskBasedCache implements Cache {
         long startTime = SystemClock.elapsedRealtime();
 
         Iterator<Map.Entry<String, CacheHeader>> iterator = mEntries.entrySet().iterator();
-        while (iterator.hasNext()) {
+        while (iterator.hasNext() && mTotalSize >= mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
             Map.Entry<String, CacheHeader> entry = iterator.next();
             CacheHeader e = entry.getValue();
             boolean deleted = getFileForKey(e.key).delete();
@@ -292,10 +488,6 @@ public class DiskBasedCache implements Cache {
             }
             iterator.remove();
             prunedFiles++;
-
-            if (mTotalSize < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
-                break;
-            }
         }
 
         if (VolleyLog.DEBUG) {
@@ -358,6 +550,31 @@ public class DiskBasedCache implements Cache {
         return new FileOutputStream(file);
     }
 
+    /** Stream writing a partial body, which accounts for the body's size once closed. */
+    private class PartialOutputStream extends FilterOutputStream {
+        private final String mKey;
+
+        PartialOutputStream(String key, OutputStream out) {
+            super(out);
+            mKey = key;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            // FilterOutputStream would write one byte at a time.
+            out.write(buffer, offset, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                onPartialWritten(mKey);
+            }
+        }
+    }
+
     /** Handles holding onto the cache headers for an entry. */
     @VisibleForTesting
     static class CacheHeader {
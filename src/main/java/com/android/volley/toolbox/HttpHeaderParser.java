@@ -35,6 +35,8 @@ public class HttpHeaderParser {
 
     static final String HEADER_CONTENT_TYPE = "Content-Type";
 
+    static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
     private static final String DEFAULT_CONTENT_CHARSET = "ISO-8859-1";
 
     private static final String RFC1123_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
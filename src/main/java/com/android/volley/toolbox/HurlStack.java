@@ -21,10 +21,11 @@ import com.android.volley.AuthFailureError;
 import com.android.volley.Header;
 import com.android.volley.Request;
 import com.android.volley.Request.Method;
-import java.io.DataOutputStream;
+import com.android.volley.RequestBody;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLStreamHandlerFactory;
@@ -45,7 +46,7 @@ import okhttp3.OkHttpClient;
 /*
 * 1.创建 HttpUrlConnection 对象时通过 createConnection (URL url)来实现的
 
-2.添加请求的body会在addBodyIfExists（）内调用request.getBody()来实现
+2.添加请求的body会在addBodyIfExists（）内调用request.getRequestBody()来实现
 
 3.添加请求的标头Content-type是调用request.getBodyContentType()来实现的。
 * */
@@ -65,6 +66,9 @@ public class HurlStack extends BaseHttpStack {
     private final UrlRewriter mUrlRewriter;
     private final SSLSocketFactory mSslSocketFactory;
 
+    /** Compressor for outgoing request bodies, or null to send them as-is. */
+    private volatile RequestBodyCompressor mRequestBodyCompressor;
+
     public HurlStack() {
         this(/* urlRewriter = */ null);
     }
@@ -83,6 +87,16 @@ public class HurlStack extends BaseHttpStack {
         mSslSocketFactory = sslSocketFactory;
     }
 
+    /**
+     * Sets the compressor used for POST, PUT and PATCH bodies. Compression is disabled by default;
+     * pass null to disable it again.
+     *
+     * @param compressor the compressor to apply, or null to send bodies uncompressed
+     */
+    public void setRequestBodyCompressor(RequestBodyCompressor compressor) {
+        mRequestBodyCompressor = compressor;
+    }
+
     @Override
     public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
             throws IOException, AuthFailureError {
@@ -108,7 +122,7 @@ public class HurlStack extends BaseHttpStack {
                 connection.setRequestProperty(headerName, map.get(headerName));
             }
             //根据volley中请求，来设置HttpUrlConnection的连接方式，和传递的内容
-            setConnectionParametersForRequest(connection, request);
+            setConnectionParametersForRequest(connection, request, mRequestBodyCompressor);
             // Initialize HttpResponse with data from the HttpURLConnection.
             int responseCode = connection.getResponseCode();
             if (responseCode == -1) {
@@ -272,9 +286,15 @@ public class HurlStack extends BaseHttpStack {
 
     // NOTE: Any request headers added here (via setRequestProperty or addRequestProperty) should be
     // checked against the existing properties in the connection and not overridden if already set.
-    @SuppressWarnings("deprecation")
     /* package */ static void setConnectionParametersForRequest(
             HttpURLConnection connection, Request<?> request) throws IOException, AuthFailureError {
+        setConnectionParametersForRequest(connection, request, /* compressor= */ null);
+    }
+
+    @SuppressWarnings("deprecation")
+    /* package */ static void setConnectionParametersForRequest(
+            HttpURLConnection connection, Request<?> request, RequestBodyCompressor compressor)
+            throws IOException, AuthFailureError {
         switch (request.getMethod()) {
             case Method.DEPRECATED_GET_OR_POST:
                 // This is the deprecated way that needs to be handled for backwards compatibility.
@@ -283,7 +303,7 @@ public class HurlStack extends BaseHttpStack {
                 byte[] postBody = request.getPostBody();
                 if (postBody != null) {
                     connection.setRequestMethod("POST");
-                    addBody(connection, request, postBody);
+                    addBody(connection, request, RequestBody.create(postBody), compressor);
                 }
                 break;
             case Method.GET:
@@ -296,11 +316,11 @@ public class HurlStack extends BaseHttpStack {
                 break;
             case Method.POST:
                 connection.setRequestMethod("POST");
-                addBodyIfExists(connection, request);
+                addBodyIfExists(connection, request, compressor);
                 break;
             case Method.PUT:
                 connection.setRequestMethod("PUT");
-                addBodyIfExists(connection, request);
+                addBodyIfExists(connection, request, compressor);
                 break;
             case Method.HEAD:
                 connection.setRequestMethod("HEAD");
@@ -313,7 +333,7 @@ public class HurlStack extends BaseHttpStack {
                 break;
             case Method.PATCH:
                 connection.setRequestMethod("PATCH");
-                addBodyIfExists(connection, request);
+                addBodyIfExists(connection, request, compressor);
                 break;
             default:
                 throw new IllegalStateException("Unknown method type.");
@@ -326,27 +346,57 @@ public class HurlStack extends BaseHttpStack {
      * @throws IOException
      * @throws AuthFailureError
      */
-    private static void addBodyIfExists(HttpURLConnection connection, Request<?> request)
+    private static void addBodyIfExists(
+            HttpURLConnection connection, Request<?> request, RequestBodyCompressor compressor)
             throws IOException, AuthFailureError {
-        byte[] body = request.getBody();
+        RequestBody body = request.getRequestBody();
         if (body != null) {
-            addBody(connection, request, body);
+            addBody(connection, request, body, compressor);
         }
     }
 
-    private static void addBody(HttpURLConnection connection, Request<?> request, byte[] body)
+    private static void addBody(
+            HttpURLConnection connection,
+            Request<?> request,
+            RequestBody body,
+            RequestBodyCompressor compressor)
             throws IOException {
-        // Prepare output. There is no need to set Content-Length explicitly,
-        // since this is handled by HttpURLConnection using the size of the prepared
-        // output stream.
         connection.setDoOutput(true);
         // Set the content-type unless it was already set (by Request#getHeaders).
         if (!connection.getRequestProperties().containsKey(HttpHeaderParser.HEADER_CONTENT_TYPE)) {
             connection.setRequestProperty(
                     HttpHeaderParser.HEADER_CONTENT_TYPE, request.getBodyContentType());
         }
-        DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-        out.write(body);
+        long contentLength = body.contentLength();
+        // Compress unless the caller already encoded the body itself.
+        boolean compress =
+                compressor != null
+                        && !connection
+                                .getRequestProperties()
+                                .containsKey(HttpHeaderParser.HEADER_CONTENT_ENCODING)
+                        && compressor.shouldCompress(connection.getURL(), contentLength);
+        if (compress) {
+            connection.setRequestProperty(
+                    HttpHeaderParser.HEADER_CONTENT_ENCODING, RequestBodyCompressor.ENCODING_GZIP);
+            // The compressed length isn't known until the body is written, so stream it in chunks
+            // rather than letting HttpURLConnection buffer all of the gzip output. Hosts that
+            // accept gzip-encoded requests are expected to accept chunked ones too.
+            connection.setChunkedStreamingMode(0);
+        } else if (body.isStreaming()
+                && contentLength >= 0
+                && contentLength <= Integer.MAX_VALUE) {
+            // Stream the body straight to the socket instead of letting HttpURLConnection buffer
+            // it to compute Content-Length. Byte array bodies are still buffered so that they can
+            // be resent after an auth challenge or a redirect, which fixed-length mode disables.
+            // Bodies of unknown length are buffered too, since not every server accepts chunked
+            // requests.
+            connection.setFixedLengthStreamingMode((int) contentLength);
+        }
+        OutputStream out = connection.getOutputStream();
+        if (compress) {
+            out = compressor.wrap(out);
+        }
+        body.writeTo(out);
         out.close();
     }
 }
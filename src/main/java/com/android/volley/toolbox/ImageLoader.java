@@ -13,22 +13,34 @@
  */
 package com.android.volley.toolbox;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
 import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 import com.android.volley.Request;
+import com.android.volley.Request.Priority;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
 import com.android.volley.ResponseDelivery;
 import com.android.volley.VolleyError;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Helper that handles loading and caching images from remote URLs.
@@ -43,8 +55,20 @@ public class ImageLoader {
     /** RequestQueue for dispatching ImageRequests onto. */
     private final RequestQueue mRequestQueue;
 
-    /** Amount of time to wait after first response arrives before delivering all responses. */
-    private int mBatchResponseDelayMs = 100;
+    /** Default time per frame spent delivering batched responses. */
+    private static final int DEFAULT_BATCH_FRAME_BUDGET_MS = 8;
+
+    /** Frame interval assumed where {@link Choreographer} is unavailable. */
+    private static final int FALLBACK_FRAME_INTERVAL_MS = 16;
+
+    /**
+     * Amount of time to wait after first response arrives before delivering responses, or -1 to
+     * deliver them on the next frame.
+     */
+    private int mBatchResponseDelayMs = -1;
+
+    /** Time per frame to spend delivering batched responses before carrying the rest over. */
+    private int mBatchFrameBudgetMs = DEFAULT_BATCH_FRAME_BUDGET_MS;
 
     /** The cache implementation to be used as an L1 cache before calling into volley. */
     private final ImageCache mCache;
@@ -55,8 +79,9 @@ public class ImageLoader {
      */
     private final HashMap<String, BatchedImageRequest> mInFlightRequests = new HashMap<>();
 
-    /** HashMap of the currently pending responses (waiting to be delivered). */
-    private final HashMap<String, BatchedImageRequest> mBatchedResponses = new HashMap<>();
+    /** Map of the currently pending responses (waiting to be delivered), oldest first. */
+    private final LinkedHashMap<String, BatchedImageRequest> mBatchedResponses =
+            new LinkedHashMap<>();
 
     /** Handler to the main thread. */
     private final Handler mHandler = new Handler(Looper.getMainLooper());
@@ -64,10 +89,29 @@ public class ImageLoader {
     /** Runnable for in-flight response delivery. */
     private Runnable mRunnable;
 
+    /** Whether requests cache their resized images rather than the originals. */
+    private boolean mCacheResizedImages;
+
+    /** Pool that bitmaps are returned to once evicted and no longer shown, or null. */
+    @Nullable private BitmapPool mBitmapPool;
+
+    /** Bitmaps handed out to containers or pending delivery, while a pool is set. */
+    private final WeakHashMap<Bitmap, BitmapUse> mBitmapUses = new WeakHashMap<>();
+
+    /**
+     * Bitmaps decoded by this loader's requests while a pool is set, the only ones it pools.
+     * Others, e.g. from a loader sharing the cache, may still be drawn by listeners it doesn't
+     * know about.
+     */
+    private final Set<Bitmap> mOwnBitmaps =
+            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
     /**
      * Simple cache adapter interface. If provided to the ImageLoader, it will be used as an L1
      * cache before dispatch to Volley. Implementations must not block. Implementation with an
-     * LruCache is recommended.
+     * LruCache is recommended, e.g. {@link LruBitmapCache}. If the loader has a {@link
+     * BitmapPool}, implementations should report evicted bitmaps with {@link
+     * ImageLoader#onBitmapEvicted(Bitmap)}.
      */
     public interface ImageCache {
         Bitmap getBitmap(String url);
@@ -228,6 +272,7 @@ public class ImageLoader {
             ImageContainer container =
                     new ImageContainer(
                             cachedBitmap, requestUrl, /* cacheKey= */ null, /* listener= */ null);
+            container.retainBitmap();
             imageListener.onResponse(container, true);
             return container;
         }
@@ -245,8 +290,12 @@ public class ImageLoader {
             request = mBatchedResponses.get(cacheKey);
         }
         if (request != null) {
-            // If it is, add this request to the list of listeners.
+            // If it is, add this request to the list of listeners. A prefetch is moved ahead of
+            // the others now that its image is about to be shown.
             request.addContainer(imageContainer);
+            if (request.mPrefetch) {
+                setPriority(request.mRequest, Priority.HIGH);
+            }
             return imageContainer;
         }
 
@@ -260,42 +309,202 @@ public class ImageLoader {
         return imageContainer;
     }
 
+    /**
+     * Equivalent to calling {@link #prefetch(List, int, int, ScaleType)} with {@code ScaleType ==
+     * ScaleType.CENTER_INSIDE}.
+     */
+    @MainThread
+    public void prefetch(List<String> requestUrls, int maxWidth, int maxHeight) {
+        prefetch(requestUrls, maxWidth, maxHeight, ScaleType.CENTER_INSIDE);
+    }
+
+    /**
+     * Warms the caches with images that are likely to be shown soon, e.g. the next rows of a list.
+     *
+     * <p>Prefetches run at {@link Priority#LOW} priority. A {@code get()} for the same URL, size
+     * and scale type as a waiting prefetch joins it and raises it to {@link Priority#HIGH} instead
+     * of making a second request, so the image that is about to be shown overtakes the other
+     * prefetches. Images that are cached or already loading are skipped.
+     *
+     * <p>Must be called from the main thread.
+     *
+     * @param requestUrls The urls of the remote images
+     * @param maxWidth The maximum width of the images, as will be passed to {@code get()}.
+     * @param maxHeight The maximum height of the images, as will be passed to {@code get()}.
+     * @param scaleType The ImageViews ScaleType used to calculate the needed image size.
+     */
+    @MainThread
+    public void prefetch(
+            List<String> requestUrls, int maxWidth, int maxHeight, ScaleType scaleType) {
+        Threads.throwIfNotOnMainThread();
+        for (String requestUrl : requestUrls) {
+            String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight, scaleType);
+            if (mInFlightRequests.containsKey(cacheKey)
+                    || mBatchedResponses.containsKey(cacheKey)
+                    || mCache.getBitmap(cacheKey) != null) {
+                continue;
+            }
+            Request<Bitmap> request =
+                    makeImageRequest(requestUrl, maxWidth, maxHeight, scaleType, cacheKey);
+            setPriority(request, Priority.LOW);
+            mRequestQueue.add(request);
+            mInFlightRequests.put(
+                    cacheKey, new BatchedImageRequest(request, /* container= */ null));
+        }
+    }
+
+    /** Changes the priority of an image request, re-sorting it if it is waiting in the queue. */
+    private void setPriority(Request<?> request, Priority priority) {
+        if (request instanceof ImageRequest && request.getPriority() != priority) {
+            ((ImageRequest) request).setPriority(priority);
+            mRequestQueue.reprioritize(request);
+        }
+    }
+
     protected Request<Bitmap> makeImageRequest(
             String requestUrl,
             int maxWidth,
             int maxHeight,
             ScaleType scaleType,
             final String cacheKey) {
-        return new ImageRequest(
-                requestUrl,
-                new Listener<Bitmap>() {
-                    @Override
-                    public void onResponse(Bitmap response) {
-                        onGetImageSuccess(cacheKey, response);
-                    }
-                },
-                maxWidth,
-                maxHeight,
-                scaleType,
-                Config.RGB_565,
-                new ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        onGetImageError(cacheKey, error);
-                    }
-                });
+        ImageRequest request =
+                new ImageRequest(
+                        requestUrl,
+                        new Listener<Bitmap>() {
+                            @Override
+                            public void onResponse(Bitmap response) {
+                                onGetImageSuccess(cacheKey, response);
+                            }
+                        },
+                        maxWidth,
+                        maxHeight,
+                        scaleType,
+                        Config.RGB_565,
+                        new ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                onGetImageError(cacheKey, error);
+                            }
+                        });
+        request.setBitmapPool(mBitmapPool);
+        if (mCacheResizedImages) {
+            request.setResizedCacheKey(cacheKey);
+        }
+        return request;
     }
 
     /**
-     * Sets the amount of time to wait after the first response arrives before delivering all
+     * Sets the amount of time to wait after the first response arrives before delivering
      * responses. Batching can be disabled entirely by passing in 0.
      *
+     * <p>By default responses are delivered at the start of the next display frame instead, which
+     * adds no visible latency; pass -1 to restore that.
+     *
      * @param newBatchedResponseDelayMs The time in milliseconds to wait.
      */
     public void setBatchedResponseDelay(int newBatchedResponseDelayMs) {
         mBatchResponseDelayMs = newBatchedResponseDelayMs;
     }
 
+    /**
+     * Sets how long to spend delivering batched responses per frame. Once a batch has taken this
+     * long, the remaining responses are carried over to the next frame so that a burst of images
+     * doesn't cause dropped frames. At least one response is delivered per frame. Defaults to 8ms.
+     *
+     * @param budgetMs The time in milliseconds, or 0 to deliver one response per frame.
+     */
+    public void setBatchedResponseFrameBudget(int budgetMs) {
+        mBatchFrameBudgetMs = budgetMs;
+    }
+
+    /**
+     * Sets whether image requests with a maximum size store the resized image in the {@link
+     * RequestQueue}'s cache, keyed by URL, size and scale type, instead of the original bytes.
+     * Loads after a restart then read and decode a small thumbnail rather than the full image.
+     * Off by default.
+     *
+     * @see ImageRequest#setResizedCacheKey(String)
+     */
+    public void setCacheResizedImages(boolean cacheResizedImages) {
+        mCacheResizedImages = cacheResizedImages;
+    }
+
+    /**
+     * Sets a pool that image requests decode into and that evicted bitmaps are returned to. Must
+     * be set before any image is loaded.
+     *
+     * <p>A bitmap is only pooled once the {@link ImageCache} has reported its eviction through
+     * {@link #onBitmapEvicted(Bitmap)} and every {@link ImageContainer} holding it has been
+     * released with {@link ImageContainer#cancelRequest()}. Callers using a pool must therefore
+     * stop drawing a container's bitmap before cancelling it, as {@link NetworkImageView} does.
+     * Only bitmaps decoded by this loader's own requests are pooled, so the cache may be shared
+     * with other loaders, e.g. a {@link ConcurrentImageLoader}.
+     */
+    @MainThread
+    public void setBitmapPool(@Nullable BitmapPool pool) {
+        Threads.throwIfNotOnMainThread();
+        mBitmapPool = pool;
+    }
+
+    /** Returns the pool set with {@link #setBitmapPool(BitmapPool)}, or null. */
+    @Nullable
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Tells the loader that its {@link ImageCache} no longer holds the given bitmap, e.g. from
+     * {@code LruCache.entryRemoved()}. If a {@link BitmapPool} is set and the bitmap was decoded
+     * by this loader, it is returned to the pool as soon as no container shows it. Must be called
+     * from the main thread.
+     */
+    @MainThread
+    public void onBitmapEvicted(Bitmap bitmap) {
+        Threads.throwIfNotOnMainThread();
+        if (mBitmapPool == null || bitmap == null || !mOwnBitmaps.contains(bitmap)) {
+            return;
+        }
+        BitmapUse use = mBitmapUses.get(bitmap);
+        if (use == null) {
+            mOwnBitmaps.remove(bitmap);
+            mBitmapPool.put(bitmap);
+        } else {
+            use.evicted = true;
+        }
+    }
+
+    /** Records one more user of a bitmap, so that it isn't pooled while in use. */
+    private void retain(Bitmap bitmap) {
+        if (mBitmapPool == null || bitmap == null) {
+            return;
+        }
+        BitmapUse use = mBitmapUses.get(bitmap);
+        if (use == null) {
+            use = new BitmapUse();
+            mBitmapUses.put(bitmap, use);
+        }
+        use.count++;
+    }
+
+    /** Records that a user of a bitmap is done, pooling it if it was the last and it's evicted. */
+    private void release(Bitmap bitmap) {
+        BitmapUse use = bitmap == null ? null : mBitmapUses.get(bitmap);
+        if (use == null || --use.count > 0) {
+            return;
+        }
+        mBitmapUses.remove(bitmap);
+        if (use.evicted && mBitmapPool != null) {
+            mOwnBitmaps.remove(bitmap);
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /** Number of users of a bitmap and whether the cache has let go of it. */
+    private static class BitmapUse {
+        int count;
+        boolean evicted;
+    }
+
     /**
      * Handler for when an image was successfully loaded.
      *
@@ -303,12 +512,20 @@ public class ImageLoader {
      * @param response The bitmap that was returned from the network.
      */
     protected void onGetImageSuccess(String cacheKey, Bitmap response) {
-        // cache the image that was fetched.
-        mCache.putBitmap(cacheKey, response);
-
         // remove the request from the list of in-flight requests.
         BatchedImageRequest request = mInFlightRequests.remove(cacheKey);
 
+        // Hold on to the bitmap until it is delivered, in case caching it evicts it right away.
+        if (request != null) {
+            retain(response);
+        }
+        if (mBitmapPool != null && response != null) {
+            mOwnBitmaps.add(response);
+        }
+
+        // cache the image that was fetched.
+        mCache.putBitmap(cacheKey, response);
+
         if (request != null) {
             // Update the response bitmap.
             request.mResponseBitmap = response;
@@ -353,6 +570,9 @@ public class ImageLoader {
         /** The request URL that was specified */
         private final String mRequestUrl;
 
+        /** Whether mBitmap is counted as in use, see {@link #setBitmapPool(BitmapPool)}. */
+        private boolean mRetainsBitmap;
+
         /**
          * Constructs a BitmapContainer object.
          *
@@ -377,6 +597,11 @@ public class ImageLoader {
         public void cancelRequest() {
             Threads.throwIfNotOnMainThread();
 
+            if (mRetainsBitmap) {
+                mRetainsBitmap = false;
+                release(mBitmap);
+            }
+
             if (mListener == null) {
                 return;
             }
@@ -386,6 +611,9 @@ public class ImageLoader {
                 boolean canceled = request.removeContainerAndCancelIfNecessary(this);
                 if (canceled) {
                     mInFlightRequests.remove(mCacheKey);
+                } else if (request.mPrefetch && request.mContainers.isEmpty()) {
+                    // Nobody is waiting to show the image any more; it's only a prefetch again.
+                    setPriority(request.mRequest, Priority.LOW);
                 }
             } else {
                 // check to see if it is already batched for delivery.
@@ -394,11 +622,20 @@ public class ImageLoader {
                     request.removeContainerAndCancelIfNecessary(this);
                     if (request.mContainers.size() == 0) {
                         mBatchedResponses.remove(mCacheKey);
+                        release(request.mResponseBitmap);
                     }
                 }
             }
         }
 
+        /** Counts mBitmap as in use until this container is cancelled. */
+        private void retainBitmap() {
+            if (mBitmap != null && !mRetainsBitmap) {
+                mRetainsBitmap = true;
+                retain(mBitmap);
+            }
+        }
+
         /**
          * Returns the bitmap associated with the request URL if it has been loaded, null otherwise.
          */
@@ -429,15 +666,22 @@ public class ImageLoader {
         /** List of all of the active ImageContainers that are interested in the request */
         private final List<ImageContainer> mContainers = new ArrayList<>();
 
+        /** Whether this is a prefetch, which isn't cancelled when its containers are. */
+        private final boolean mPrefetch;
+
         /**
          * Constructs a new BatchedImageRequest object
          *
          * @param request The request being tracked
-         * @param container The ImageContainer of the person who initiated the request.
+         * @param container The ImageContainer of the person who initiated the request, or null
+         *     for a prefetch.
          */
-        public BatchedImageRequest(Request<?> request, ImageContainer container) {
+        public BatchedImageRequest(Request<?> request, @Nullable ImageContainer container) {
             mRequest = request;
-            mContainers.add(container);
+            mPrefetch = container == null;
+            if (container != null) {
+                mContainers.add(container);
+            }
         }
 
         /** Set the error for this response */
@@ -467,7 +711,7 @@ public class ImageLoader {
          */
         public boolean removeContainerAndCancelIfNecessary(ImageContainer container) {
             mContainers.remove(container);
-            if (mContainers.size() == 0) {
+            if (mContainers.size() == 0 && !mPrefetch) {
                 mRequest.cancel();
                 return true;
             }
@@ -490,29 +734,96 @@ public class ImageLoader {
                     new Runnable() {
                         @Override
                         public void run() {
-                            for (BatchedImageRequest bir : mBatchedResponses.values()) {
-                                for (ImageContainer container : bir.mContainers) {
-                                    // If one of the callers in the batched request canceled the
-                                    // request
-                                    // after the response was received but before it was delivered,
-                                    // skip them.
-                                    if (container.mListener == null) {
-                                        continue;
-                                    }
-                                    if (bir.getError() == null) {
-                                        container.mBitmap = bir.mResponseBitmap;
-                                        container.mListener.onResponse(container, false);
-                                    } else {
-                                        container.mListener.onErrorResponse(bir.getError());
-                                    }
-                                }
-                            }
-                            mBatchedResponses.clear();
-                            mRunnable = null;
+                            deliverBatchedResponses();
                         }
                     };
-            // Post the runnable.
-            mHandler.postDelayed(mRunnable, mBatchResponseDelayMs);
+            if (mBatchResponseDelayMs >= 0) {
+                mHandler.postDelayed(mRunnable, mBatchResponseDelayMs);
+            } else {
+                postOnNextFrame(mRunnable, /* carryOver= */ false);
+            }
+        }
+    }
+
+    /**
+     * Delivers batched responses, oldest first, until the frame budget is used up and schedules
+     * the rest for the next frame.
+     */
+    private void deliverBatchedResponses() {
+        if (mBatchedResponses.isEmpty()) {
+            // Every container was cancelled before the frame came.
+            mRunnable = null;
+            return;
+        }
+        long deadline = SystemClock.uptimeMillis() + mBatchFrameBudgetMs;
+        // Listeners may cancel containers, which changes mBatchedResponses, so the iterator isn't
+        // kept across deliveries.
+        Iterator<Map.Entry<String, BatchedImageRequest>> iterator =
+                mBatchedResponses.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, BatchedImageRequest> entry = iterator.next();
+            BatchedImageRequest bir = entry.getValue();
+            for (ImageContainer container : bir.mContainers) {
+                // If one of the callers in the batched request canceled the request
+                // after the response was received but before it was delivered, skip them.
+                if (container.mListener == null) {
+                    continue;
+                }
+                if (bir.getError() == null) {
+                    container.mBitmap = bir.mResponseBitmap;
+                    container.retainBitmap();
+                    container.mListener.onResponse(container, false);
+                } else {
+                    container.mListener.onErrorResponse(bir.getError());
+                }
+            }
+            // The containers now hold the bitmap themselves, unless cancelling the last of them
+            // already released it.
+            if (mBatchedResponses.remove(entry.getKey()) == bir) {
+                release(bir.mResponseBitmap);
+            }
+            if (SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+            iterator = mBatchedResponses.entrySet().iterator();
+        }
+
+        if (mBatchedResponses.isEmpty()) {
+            mRunnable = null;
+        } else {
+            postOnNextFrame(mRunnable, /* carryOver= */ true);
+        }
+    }
+
+    /**
+     * Runs the runnable at the start of the next display frame, ahead of layout and drawing, so
+     * views updated by it are drawn in that same frame.
+     *
+     * @param carryOver Whether the runnable continues a batch from the current frame. Without a
+     *     {@link Choreographer}, the first batch is run right away and later ones a frame apart.
+     */
+    private void postOnNextFrame(Runnable runnable, boolean carryOver) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            FrameCallbacks.post(runnable);
+        } else if (carryOver) {
+            mHandler.postDelayed(runnable, FALLBACK_FRAME_INTERVAL_MS);
+        } else {
+            mHandler.post(runnable);
+        }
+    }
+
+    /** Posts to the main thread's {@link Choreographer}; kept apart so old devices load it. */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCallbacks {
+        static void post(final Runnable runnable) {
+            Choreographer.getInstance()
+                    .postFrameCallback(
+                            new Choreographer.FrameCallback() {
+                                @Override
+                                public void doFrame(long frameTimeNanos) {
+                                    runnable.run();
+                                }
+                            });
         }
     }
 
@@ -524,7 +835,7 @@ public class ImageLoader {
      * @param maxHeight The max-height of the output.
      * @param scaleType The scaleType of the imageView.
      */
-    private static String getCacheKey(
+    static String getCacheKey(
             String url, int maxWidth, int maxHeight, ScaleType scaleType) {
         return new StringBuilder(url.length() + 12)
                 .append("#W")
@@ -16,19 +16,24 @@
 
 package com.android.volley.toolbox;
 
+import android.annotation.TargetApi;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.support.annotation.GuardedBy;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.widget.ImageView.ScaleType;
+import com.android.volley.Cache;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyLog;
+import java.io.ByteArrayOutputStream;
 
 /** A canned request for getting an image at a given URL and calling back with a decoded Bitmap. */
 public class ImageRequest extends Request<Bitmap> {
@@ -53,8 +58,22 @@ public class ImageRequest extends Request<Bitmap> {
     private final int mMaxHeight;
     private final ScaleType mScaleType;
 
-    /** Decoding lock so that we don't decode more than one image at a time (to avoid OOM's) */
-    private static final Object sDecodeLock = new Object();
+    /** Pool to decode into and to return intermediate bitmaps to, or null to always allocate. */
+    @Nullable private volatile BitmapPool mBitmapPool;
+
+    private volatile Priority mPriority = Priority.LOW;
+
+    /** Quality used when compressing resized images for the cache; ignored for PNG. */
+    private static final int RESIZED_CACHE_QUALITY = 90;
+
+    /** Key to cache the resized image under instead of the original, or null. */
+    @Nullable private String mResizedCacheKey;
+
+    /** Combined size of the bitmaps held at once during the last decode, for tests. */
+    private volatile long mPeakDecodeBytes;
+
+    /** Limits how much pixel memory concurrent decodes may use (to avoid OOM's). */
+    private static volatile DecodeScheduler sDecodeScheduler = new DecodeScheduler();
 
     /**
      * Creates a new image request, decoding to a maximum specified width and height. If both width
@@ -116,7 +135,56 @@ public class ImageRequest extends Request<Bitmap> {
 
     @Override
     public Priority getPriority() {
-        return Priority.LOW;
+        return mPriority;
+    }
+
+    /**
+     * Sets the priority of this request; {@link Priority#LOW} by default. If the request is
+     * already waiting in a queue, call {@link com.android.volley.RequestQueue#reprioritize} next.
+     */
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * Sets a pool of bitmaps to decode into, which avoids allocating a new bitmap per image. Only
+     * used on API 11 and newer; see {@link BitmapFactory.Options#inBitmap}.
+     */
+    public void setBitmapPool(@Nullable BitmapPool pool) {
+        mBitmapPool = pool;
+    }
+
+    /**
+     * Makes this request cache its resized image instead of the original bytes, under the given
+     * key rather than the URL. The image is stored compressed, as WebP on API 14 and newer and as
+     * PNG otherwise, so that later requests for the same key read a small thumbnail from the cache
+     * instead of decoding the full image again. Has no effect unless a maximum width or height is
+     * set. The key must identify the URL, the maximum size and the scale type.
+     */
+    public void setResizedCacheKey(@Nullable String cacheKey) {
+        mResizedCacheKey = cacheKey;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return cachesResizedImage() ? mResizedCacheKey : super.getCacheKey();
+    }
+
+    private boolean cachesResizedImage() {
+        return mResizedCacheKey != null && (mMaxWidth != 0 || mMaxHeight != 0);
+    }
+
+    /**
+     * Sets the scheduler that bounds the memory used by concurrent decodes of all image requests.
+     * The default allows an eighth of the maximum heap size.
+     */
+    public static void setDecodeScheduler(DecodeScheduler scheduler) {
+        sDecodeScheduler = scheduler;
+    }
+
+    /** Returns the scheduler used by all image requests, e.g. to read its wait statistics. */
+    public static DecodeScheduler getDecodeScheduler() {
+        return sDecodeScheduler;
     }
 
     /**
@@ -179,33 +247,75 @@ public class ImageRequest extends Request<Bitmap> {
 
     @Override
     protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
-        // Serialize all decode on a global lock to reduce concurrent heap usage.
-        synchronized (sDecodeLock) {
-            try {
-                return doParse(response);
-            } catch (OutOfMemoryError e) {
-                VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length, getUrl());
-                return Response.error(new ParseError(e));
-            }
+        // Get the natural bounds first; this is cheap and tells us how much memory we'll need.
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(response.data, 0, response.dataLength, decodeOptions);
+        int actualWidth = decodeOptions.outWidth;
+        int actualHeight = decodeOptions.outHeight;
+        decodeOptions.inJustDecodeBounds = false;
+
+        // Let decodes run concurrently as long as their bitmaps fit the memory budget.
+        DecodeScheduler scheduler = sDecodeScheduler;
+        long decodeBytes = estimateDecodeBytes(actualWidth, actualHeight);
+        try {
+            scheduler.acquire(decodeBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.error(new ParseError(e));
+        }
+        try {
+            return doParse(response, decodeOptions, actualWidth, actualHeight);
+        } catch (OutOfMemoryError e) {
+            VolleyLog.e("Caught OOM for %d byte image, url=%s", response.dataLength, getUrl());
+            return Response.error(new ParseError(e));
+        } finally {
+            scheduler.release(decodeBytes);
         }
     }
 
+    /** Estimates the pixel memory used while decoding an image with the given natural size. */
+    private long estimateDecodeBytes(int actualWidth, int actualHeight) {
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            return 0;
+        }
+        if (mMaxWidth == 0 && mMaxHeight == 0) {
+            return (long) actualWidth * actualHeight * DecodeScheduler.bytesPerPixel(mDecodeConfig);
+        }
+        // Resized images are decoded in the default config, not mDecodeConfig.
+        long bytesPerPixel = DecodeScheduler.bytesPerPixel(null);
+        int desiredWidth =
+                getResizedDimension(mMaxWidth, mMaxHeight, actualWidth, actualHeight, mScaleType);
+        int desiredHeight =
+                getResizedDimension(mMaxHeight, mMaxWidth, actualHeight, actualWidth, mScaleType);
+        int sampleSize =
+                findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
+        int sampledWidth = (actualWidth + sampleSize - 1) / sampleSize;
+        int sampledHeight = (actualHeight + sampleSize - 1) / sampleSize;
+        long bytes = (long) desiredWidth * desiredHeight * bytesPerPixel;
+        if (getDensityScaling(sampledWidth, sampledHeight, desiredWidth, desiredHeight) == null) {
+            // The sampled bitmap has to be decoded before the scaled copy is made from it.
+            bytes += (long) sampledWidth * sampledHeight * bytesPerPixel;
+        }
+        return bytes;
+    }
+
     /** The real guts of parseNetworkResponse. Broken out for readability. */
-    private Response<Bitmap> doParse(NetworkResponse response) {
+    private Response<Bitmap> doParse(
+            NetworkResponse response,
+            BitmapFactory.Options decodeOptions,
+            int actualWidth,
+            int actualHeight) {
         byte[] data = response.data;
-        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        int length = response.dataLength;
         Bitmap bitmap = null;
+        long peakBytes;
         if (mMaxWidth == 0 && mMaxHeight == 0) {
             decodeOptions.inPreferredConfig = mDecodeConfig;
-            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            bitmap = decode(data, length, decodeOptions, actualWidth, actualHeight);
+            peakBytes = bitmap == null ? 0 : BitmapPool.sizeOf(bitmap);
         } else {
-            // If we have to resize this image, first get the natural bounds.
-            decodeOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
-            int actualWidth = decodeOptions.outWidth;
-            int actualHeight = decodeOptions.outHeight;
-
-            // Then compute the dimensions we would ideally like to decode to.
+            // Compute the dimensions we would ideally like to decode to.
             int desiredWidth =
                     getResizedDimension(
                             mMaxWidth, mMaxHeight, actualWidth, actualHeight, mScaleType);
@@ -214,29 +324,173 @@ public class ImageRequest extends Request<Bitmap> {
                             mMaxHeight, mMaxWidth, actualHeight, actualWidth, mScaleType);
 
             // Decode to the nearest power of two scaling factor.
-            decodeOptions.inJustDecodeBounds = false;
             // TODO(ficus): Do we need this or is it okay since API 8 doesn't support it?
             // decodeOptions.inPreferQualityOverSpeed = PREFER_QUALITY_OVER_SPEED;
             decodeOptions.inSampleSize =
                     findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
-            Bitmap tempBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            int sampledWidth = actualWidth;
+            int sampledHeight = actualHeight;
+            if (decodeOptions.inSampleSize > 1) {
+                // Ask the decoder for the sampled size, as rounding differs between formats.
+                decodeOptions.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, length, decodeOptions);
+                decodeOptions.inJustDecodeBounds = false;
+                sampledWidth = decodeOptions.outWidth;
+                sampledHeight = decodeOptions.outHeight;
+            }
+
+            // Where the aspect ratio allows it, have the decoder scale the sampled image to the
+            // exact size so that no intermediate bitmap is needed.
+            int[] densities =
+                    getDensityScaling(sampledWidth, sampledHeight, desiredWidth, desiredHeight);
+            Bitmap tempBitmap;
+            if (densities != null) {
+                decodeOptions.inScaled = true;
+                decodeOptions.inDensity = densities[0];
+                decodeOptions.inTargetDensity = densities[1];
+                tempBitmap = decode(data, length, decodeOptions, desiredWidth, desiredHeight);
+                if (tempBitmap != null) {
+                    // Don't let the made-up densities affect how the bitmap is drawn.
+                    tempBitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+                }
+            } else {
+                tempBitmap = decode(data, length, decodeOptions, sampledWidth, sampledHeight);
+            }
+            peakBytes = tempBitmap == null ? 0 : BitmapPool.sizeOf(tempBitmap);
 
             // If necessary, scale down to the maximal acceptable size.
             if (tempBitmap != null
                     && (tempBitmap.getWidth() > desiredWidth
                             || tempBitmap.getHeight() > desiredHeight)) {
                 bitmap = Bitmap.createScaledBitmap(tempBitmap, desiredWidth, desiredHeight, true);
-                tempBitmap.recycle();
+                peakBytes += BitmapPool.sizeOf(bitmap);
+                BitmapPool pool = mBitmapPool;
+                if (pool != null && tempBitmap.isMutable()) {
+                    pool.put(tempBitmap);
+                } else {
+                    tempBitmap.recycle();
+                }
             } else {
                 bitmap = tempBitmap;
             }
         }
 
+        mPeakDecodeBytes = peakBytes;
+
         if (bitmap == null) {
             return Response.error(new ParseError(response));
-        } else {
-            return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
         }
+        Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(response);
+        if (entry != null
+                && cachesResizedImage()
+                && (bitmap.getWidth() < actualWidth || bitmap.getHeight() < actualHeight)) {
+            // Cache the resized image instead of the original. Images that didn't need resizing,
+            // e.g. ones that came from this cache, are cached as they are.
+            byte[] resized = compressForCache(bitmap);
+            if (resized != null) {
+                entry.data = resized;
+            }
+        }
+        return Response.success(bitmap, entry);
+    }
+
+    /** Compresses a resized image for the cache, returning null on failure. */
+    @Nullable
+    private static byte[] compressForCache(Bitmap bitmap) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!bitmap.compress(getResizedCacheFormat(), RESIZED_CACHE_QUALITY, bytes)) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static Bitmap.CompressFormat getResizedCacheFormat() {
+        // WebP encoding drops the alpha channel before Jelly Bean MR2 (API 18).
+        if (Build.VERSION.SDK_INT >= 18) {
+            return Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.PNG;
+    }
+
+    /**
+     * Returns the {@code inDensity} and {@code inTargetDensity} that make the decoder scale an
+     * image of the sampled size down to exactly the desired size, or null if no uniform scale
+     * does. Images are never scaled up.
+     */
+    @Nullable
+    private static int[] getDensityScaling(
+            int sampledWidth, int sampledHeight, int desiredWidth, int desiredHeight) {
+        if (desiredWidth > sampledWidth
+                || desiredHeight > sampledHeight
+                || (desiredWidth == sampledWidth && desiredHeight == sampledHeight)) {
+            return null;
+        }
+        // The decoder rounds each side of the scaled image to the nearest pixel.
+        if (scaleSide(sampledHeight, desiredWidth, sampledWidth) == desiredHeight) {
+            return new int[] {sampledWidth, desiredWidth};
+        }
+        if (scaleSide(sampledWidth, desiredHeight, sampledHeight) == desiredWidth) {
+            return new int[] {sampledHeight, desiredHeight};
+        }
+        return null;
+    }
+
+    private static int scaleSide(int side, int targetDensity, int density) {
+        return (int) (side * ((float) targetDensity / density) + 0.5f);
+    }
+
+    /** Returns the combined size of the bitmaps held at once during the last decode. */
+    @VisibleForTesting
+    long getPeakDecodeBytes() {
+        return mPeakDecodeBytes;
+    }
+
+    /**
+     * Decodes the image, into a pooled bitmap if there is a suitable one.
+     *
+     * @param width expected width of the decoded bitmap
+     * @param height expected height of the decoded bitmap
+     */
+    @Nullable
+    private Bitmap decode(
+            byte[] data, int length, BitmapFactory.Options decodeOptions, int width, int height) {
+        BitmapPool pool = mBitmapPool;
+        if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return BitmapFactory.decodeByteArray(data, 0, length, decodeOptions);
+        }
+        return decodeIntoPool(pool, data, length, decodeOptions, width, height);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Nullable
+    private static Bitmap decodeIntoPool(
+            BitmapPool pool,
+            byte[] data,
+            int length,
+            BitmapFactory.Options decodeOptions,
+            int width,
+            int height) {
+        // Decoded bitmaps must be mutable to be reused later.
+        decodeOptions.inMutable = true;
+        // Before KitKat (API 19), only bitmaps of the same size can be reused, without sampling
+        // or scaling.
+        boolean resampled = decodeOptions.inSampleSize > 1 || decodeOptions.inDensity != 0;
+        if (!resampled || Build.VERSION.SDK_INT >= 19) {
+            Bitmap.Config config = decodeOptions.inPreferredConfig;
+            decodeOptions.inBitmap =
+                    pool.get(width, height, config != null ? config : Config.ARGB_8888);
+        }
+        if (decodeOptions.inBitmap != null) {
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, length, decodeOptions);
+            } catch (IllegalArgumentException e) {
+                // The format can't be decoded into an existing bitmap; give it back.
+                pool.put(decodeOptions.inBitmap);
+                decodeOptions.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, 0, length, decodeOptions);
     }
 
     @Override
@@ -258,6 +512,18 @@ public class ImageRequest extends Request<Bitmap> {
         }
     }
 
+    /** Returns the power-of-two sample size used to decode an image of the given natural size. */
+    int getSampleSize(int actualWidth, int actualHeight) {
+        if (mMaxWidth == 0 && mMaxHeight == 0) {
+            return 1;
+        }
+        int desiredWidth =
+                getResizedDimension(mMaxWidth, mMaxHeight, actualWidth, actualHeight, mScaleType);
+        int desiredHeight =
+                getResizedDimension(mMaxHeight, mMaxWidth, actualHeight, actualWidth, mScaleType);
+        return findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
+    }
+
     /**
      * Returns the largest power-of-two divisor for use in downscaling a bitmap that will not result
      * in the scaling past the desired dimensions.
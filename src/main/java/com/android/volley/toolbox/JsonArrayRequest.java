@@ -71,6 +71,8 @@ public class JsonArrayRequest extends JsonRequest<JSONArray> {
             String jsonString =
                     new String(
                             response.data,
+                            0,
+                            response.dataLength,
                             HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
             return Response.success(
                     new JSONArray(jsonString), HttpHeaderParser.parseCacheHeaders(response));
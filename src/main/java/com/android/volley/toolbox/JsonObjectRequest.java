@@ -81,6 +81,8 @@ public class JsonObjectRequest extends JsonRequest<JSONObject> {
             String jsonString =
                     new String(
                             response.data,
+                            0,
+                            response.dataLength,
                             HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
             return Response.success(
                     new JSONObject(jsonString), HttpHeaderParser.parseCacheHeaders(response));
@@ -18,13 +18,22 @@ package com.android.volley.toolbox;
 
 import android.support.annotation.GuardedBy;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import com.android.volley.AuthFailureError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
+import com.android.volley.RequestBody;
 import com.android.volley.Response;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
 import com.android.volley.VolleyLog;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A request for retrieving a T type response body at a given URL that also optionally sends along a
@@ -40,6 +49,10 @@ public abstract class JsonRequest<T> extends Request<T> {
     private static final String PROTOCOL_CONTENT_TYPE =
             String.format("application/json; charset=%s", PROTOCOL_CHARSET);
 
+    /** Whether each subclass seen so far has replaced {@link #getBody()}, by class. */
+    private static final Map<Class<?>, Boolean> sOverridesGetBody =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+
     /** Lock to guard mListener as it is cleared on cancel() and read on delivery. */
     private final Object mLock = new Object();
 
@@ -113,6 +126,37 @@ public abstract class JsonRequest<T> extends Request<T> {
         return PROTOCOL_CONTENT_TYPE;
     }
 
+    /**
+     * Streams the JSON body to the connection as UTF-8 without first encoding it into a byte
+     * array, unless a subclass has overridden {@link #getBody()}.
+     */
+    @Override
+    public RequestBody getRequestBody() throws AuthFailureError {
+        if (mRequestBody == null || overridesGetBody()) {
+            return super.getRequestBody();
+        }
+        return new Utf8Body(mRequestBody);
+    }
+
+    /**
+     * Returns whether a subclass has replaced {@link #getBody()}. The name is kept by
+     * consumer-proguard-rules.pro; if it can't be found anyway, the override is assumed so that
+     * {@link #getBody()} is always honored.
+     */
+    private boolean overridesGetBody() {
+        Class<?> clazz = getClass();
+        Boolean overrides = sOverridesGetBody.get(clazz);
+        if (overrides == null) {
+            try {
+                overrides = clazz.getMethod("getBody").getDeclaringClass() != JsonRequest.class;
+            } catch (NoSuchMethodException e) {
+                overrides = true;
+            }
+            sOverridesGetBody.put(clazz, overrides);
+        }
+        return overrides;
+    }
+
     @Override
     public byte[] getBody() {
         try {
@@ -124,4 +168,55 @@ public abstract class JsonRequest<T> extends Request<T> {
             return null;
         }
     }
+
+    /** A string body encoded to UTF-8 as it is written. */
+    private static class Utf8Body extends RequestBody {
+        private final String mContent;
+        private final long mContentLength;
+
+        Utf8Body(String content) {
+            mContent = content;
+            mContentLength = utf8Length(content);
+        }
+
+        @Override
+        public long contentLength() {
+            return mContentLength;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            Writer writer = new OutputStreamWriter(out, PROTOCOL_CHARSET);
+            writer.write(mContent);
+            // Flush rather than close so that the connection's stream is left open.
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@code s} encodes to in UTF-8. Unpaired surrogates count as one
+     * byte, matching the '?' substituted by the encoder.
+     */
+    @VisibleForTesting
+    static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
 }
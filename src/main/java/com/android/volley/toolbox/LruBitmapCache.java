@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+import android.util.Pair;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link ImageLoader.ImageCache} that keeps the most recently used bitmaps up to a total size
+ * in bytes.
+ *
+ * <p>Optionally, bitmaps evicted for size are kept through soft references as a second chance:
+ * they are returned by {@link #getBitmap(String)} until the garbage collector reclaims them. This
+ * is an alternative to reusing evicted bitmaps through a {@link BitmapPool}; an {@link
+ * EvictionListener} is only told about bitmaps that leave the cache for good, which with soft
+ * references enabled means only those removed by {@link #trimToSize(int)} or {@link #evictAll()}.
+ *
+ * <p>Call {@link #trimMemory(int)} from {@code ComponentCallbacks2.onTrimMemory()} to release
+ * memory under pressure. This class is thread-safe.
+ */
+public class LruBitmapCache implements ImageLoader.ImageCache {
+
+    /** Callback for bitmaps leaving the cache. */
+    public interface EvictionListener {
+        /**
+         * Called on the main thread after the bitmap has been removed; evictions caused by other
+         * threads, e.g. a {@link ConcurrentImageLoader} sharing the cache, are posted to it. With
+         * {@link ImageLoader}, pass the bitmap to {@link ImageLoader#onBitmapEvicted(Bitmap)} to
+         * have it reused by the loader's {@link BitmapPool}; the loader ignores bitmaps it didn't
+         * decode, which other loaders sharing the cache may still be showing.
+         */
+        void onBitmapEvicted(String key, Bitmap bitmap);
+    }
+
+    private final int mMaxBytes;
+
+    private final boolean mSoftReferences;
+
+    /** Cached bitmaps in access order, so the eldest entry is the least recently used. */
+    @GuardedBy("this")
+    private final LinkedHashMap<String, Bitmap> mBitmaps =
+            new LinkedHashMap<>(16, .75f, /* accessOrder= */ true);
+
+    /** Bitmaps evicted for size that may still be reachable, if soft references are enabled. */
+    @GuardedBy("this")
+    private final Map<String, KeyedSoftReference> mSoftBitmaps = new HashMap<>();
+
+    /** Where the garbage collector enqueues the soft references it clears. */
+    private final ReferenceQueue<Bitmap> mClearedReferences = new ReferenceQueue<>();
+
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    @GuardedBy("this")
+    private int mCurrentBytes;
+
+    @GuardedBy("this")
+    private int mHitCount;
+
+    @GuardedBy("this")
+    private int mSoftHitCount;
+
+    @GuardedBy("this")
+    private int mMissCount;
+
+    @Nullable private volatile EvictionListener mEvictionListener;
+
+    /** Creates a cache of an eighth of the maximum heap size, without soft references. */
+    public LruBitmapCache() {
+        this(getDefaultMaxBytes(), /* softReferences= */ false);
+    }
+
+    /**
+     * @param maxBytes maximum combined size of the cached bitmaps
+     * @param softReferences whether to keep soft references to bitmaps evicted for size
+     */
+    public LruBitmapCache(int maxBytes, boolean softReferences) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        mMaxBytes = maxBytes;
+        mSoftReferences = softReferences;
+    }
+
+    /** Returns an eighth of the maximum heap size, a reasonable default cache size. */
+    public static int getDefaultMaxBytes() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+    }
+
+    /** Sets the listener to tell about bitmaps leaving the cache, or null for none. */
+    public void setEvictionListener(@Nullable EvictionListener listener) {
+        mEvictionListener = listener;
+    }
+
+    @Override
+    public Bitmap getBitmap(String url) {
+        List<Pair<String, Bitmap>> evicted = null;
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = mBitmaps.get(url);
+            if (bitmap != null) {
+                mHitCount++;
+                return bitmap;
+            }
+            KeyedSoftReference reference = mSoftBitmaps.remove(url);
+            bitmap = reference == null ? null : reference.get();
+            if (bitmap == null || bitmap.isRecycled()) {
+                mMissCount++;
+                return null;
+            }
+            // Second chance: move the bitmap back into the cache.
+            mSoftHitCount++;
+            evicted = putLocked(url, bitmap);
+        }
+        notifyEvicted(evicted);
+        return bitmap;
+    }
+
+    @Override
+    public void putBitmap(String url, Bitmap bitmap) {
+        List<Pair<String, Bitmap>> evicted;
+        synchronized (this) {
+            mSoftBitmaps.remove(url);
+            evicted = putLocked(url, bitmap);
+        }
+        notifyEvicted(evicted);
+    }
+
+    /** Removes a bitmap from the cache, without telling the eviction listener. */
+    public synchronized void remove(String url) {
+        Bitmap bitmap = mBitmaps.remove(url);
+        if (bitmap != null) {
+            mCurrentBytes -= BitmapPool.sizeOf(bitmap);
+        }
+        mSoftBitmaps.remove(url);
+    }
+
+    /** Evicts the least recently used bitmaps until the cache holds at most the given size. */
+    public void trimToSize(int maxBytes) {
+        List<Pair<String, Bitmap>> evicted;
+        synchronized (this) {
+            evicted = trimLocked(maxBytes, /* keepSoftReferences= */ false);
+            mSoftBitmaps.clear();
+        }
+        notifyEvicted(evicted);
+    }
+
+    /** Evicts all bitmaps. */
+    public void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * Releases memory according to a {@code ComponentCallbacks2} trim level: everything when the
+     * process is likely to be killed or {@code onLowMemory()} would be called, and half of the
+     * cache when the app is in the background or memory is running low.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    /** Returns the maximum combined size of the cached bitmaps. */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /** Returns the combined size of the cached bitmaps, excluding soft references. */
+    public synchronized int getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    /** Returns the number of lookups answered from the cache itself. */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of lookups answered from a soft reference. */
+    public synchronized int getSoftHitCount() {
+        return mSoftHitCount;
+    }
+
+    /** Returns the number of lookups that found nothing. */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    @GuardedBy("this")
+    private List<Pair<String, Bitmap>> putLocked(String url, Bitmap bitmap) {
+        List<Pair<String, Bitmap>> evicted = new ArrayList<>();
+        Bitmap previous = mBitmaps.put(url, bitmap);
+        mCurrentBytes += BitmapPool.sizeOf(bitmap);
+        if (previous != null) {
+            mCurrentBytes -= BitmapPool.sizeOf(previous);
+            if (previous != bitmap) {
+                evicted.add(Pair.create(url, previous));
+            }
+        }
+        evicted.addAll(trimLocked(mMaxBytes, mSoftReferences));
+        return evicted;
+    }
+
+    /**
+     * Evicts the least recently used bitmaps down to the given size, returning the ones that left
+     * for good.
+     */
+    @GuardedBy("this")
+    private List<Pair<String, Bitmap>> trimLocked(int maxBytes, boolean keepSoftReferences) {
+        List<Pair<String, Bitmap>> evicted = new ArrayList<>();
+        if (keepSoftReferences) {
+            purgeClearedLocked();
+        }
+        Iterator<Map.Entry<String, Bitmap>> iterator = mBitmaps.entrySet().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Bitmap> entry = iterator.next();
+            iterator.remove();
+            mCurrentBytes -= BitmapPool.sizeOf(entry.getValue());
+            if (keepSoftReferences) {
+                mSoftBitmaps.put(
+                        entry.getKey(),
+                        new KeyedSoftReference(
+                                entry.getKey(), entry.getValue(), mClearedReferences));
+            } else {
+                evicted.add(Pair.create(entry.getKey(), entry.getValue()));
+            }
+        }
+        return evicted;
+    }
+
+    /** Forgets soft references whose bitmaps have been garbage collected. */
+    @GuardedBy("this")
+    private void purgeClearedLocked() {
+        Reference<? extends Bitmap> cleared;
+        while ((cleared = mClearedReferences.poll()) != null) {
+            String key = ((KeyedSoftReference) cleared).mKey;
+            // The key may have been cached and evicted again since.
+            if (mSoftBitmaps.get(key) == cleared) {
+                mSoftBitmaps.remove(key);
+            }
+        }
+    }
+
+    private void notifyEvicted(@Nullable final List<Pair<String, Bitmap>> evicted) {
+        final EvictionListener listener = mEvictionListener;
+        if (listener == null || evicted == null || evicted.isEmpty()) {
+            return;
+        }
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mMainThreadHandler.post(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyEvicted(listener, evicted);
+                        }
+                    });
+            return;
+        }
+        notifyEvicted(listener, evicted);
+    }
+
+    private static void notifyEvicted(
+            EvictionListener listener, List<Pair<String, Bitmap>> evicted) {
+        for (Pair<String, Bitmap> entry : evicted) {
+            listener.onBitmapEvicted(entry.first, entry.second);
+        }
+    }
+
+    /** A soft reference that remembers its key, to be forgotten once it has been cleared. */
+    private static class KeyedSoftReference extends SoftReference<Bitmap> {
+        final String mKey;
+
+        KeyedSoftReference(String key, Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            mKey = key;
+        }
+    }
+}
@@ -166,11 +166,12 @@ public class NetworkImageView extends ImageView {
         // if the URL to be loaded in this view is empty, cancel any old requests and clear the
         // currently loaded image.
         if (TextUtils.isEmpty(mUrl)) {
+            // Stop showing the old image before releasing it, as it may be reused once released.
+            setDefaultImageOrNull();
             if (mImageContainer != null) {
                 mImageContainer.cancelRequest();
                 mImageContainer = null;
             }
-            setDefaultImageOrNull();
             return;
         }
 
@@ -181,8 +182,8 @@ public class NetworkImageView extends ImageView {
                 return;
             } else {
                 // if there is a pre-existing request, cancel it if it's fetching a different URL.
-                mImageContainer.cancelRequest();
                 setDefaultImageOrNull();
+                mImageContainer.cancelRequest();
             }
         }
 
@@ -261,10 +262,10 @@ public class NetworkImageView extends ImageView {
     @Override
     protected void onDetachedFromWindow() {
         if (mImageContainer != null) {
-            // If the view was bound to an image request, cancel it and clear
-            // out the image from the view.
-            mImageContainer.cancelRequest();
+            // If the view was bound to an image request, clear out the image from the view and
+            // cancel it.
             setImageBitmap(null);
+            mImageContainer.cancelRequest();
             // also clear out the container so we can reload the image if necessary.
             mImageContainer = null;
         }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.support.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Persists the bodies of interrupted downloads so that {@link BasicNetwork} can resume them with a
+ * range request instead of starting over.
+ *
+ * <p>A partial body is stored together with the validator (ETag or Last-Modified value) of the
+ * response it came from, which is sent as {@code If-Range} so that the server only returns the
+ * remaining bytes if the resource is unchanged. Partial bodies are not cache entries and must
+ * never be served as responses. {@link DiskBasedCache} implements this interface.
+ */
+public interface PartialResponseStore {
+
+    /** Describes a stored partial body. */
+    class Partial {
+        /** The ETag or Last-Modified value of the response the body came from. */
+        public final String validator;
+
+        /** Number of body bytes stored. */
+        public final long length;
+
+        public Partial(String validator, long length) {
+            this.validator = validator;
+            this.length = length;
+        }
+    }
+
+    /** Returns the partial body stored for the given key, or null if there is none. */
+    @Nullable
+    Partial getPartial(String key);
+
+    /** Opens the partial body stored for the given key for reading, from its first byte. */
+    InputStream openPartial(String key) throws IOException;
+
+    /**
+     * Replaces any partial body for the given key with an empty one and returns a stream to write
+     * the body to. The caller must close the stream.
+     */
+    OutputStream startPartial(String key, String validator) throws IOException;
+
+    /** Returns a stream that appends to the partial body for the given key. */
+    OutputStream appendPartial(String key) throws IOException;
+
+    /** Deletes the partial body for the given key, if any. */
+    void removePartial(String key);
+}
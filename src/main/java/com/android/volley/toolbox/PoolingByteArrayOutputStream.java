@@ -60,6 +60,27 @@ public class PoolingByteArrayOutputStream extends ByteArrayOutputStream {
         super.close();
     }
 
+    /**
+     * Hands the underlying buffer to the caller instead of copying it like {@link #toByteArray()}.
+     * The first {@link #size()} bytes are the data written so far. The caller takes ownership of
+     * the buffer and should return it to the pool when done; this stream must not be written to
+     * afterwards.
+     */
+    public synchronized byte[] detachBuffer() {
+        byte[] detached = buf;
+        buf = null;
+        return detached;
+    }
+
+    /**
+     * Returns the underlying buffer without copying it. The first {@link #size()} bytes are the
+     * data written so far. The buffer is replaced when the stream grows, so it is only valid until
+     * the next write.
+     */
+    synchronized byte[] getBuffer() {
+        return buf;
+    }
+
     @Override
     public void finalize() {
         mPool.returnBuf(buf);
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.support.annotation.Nullable;
+import android.widget.ImageView.ScaleType;
+import com.android.volley.Response;
+import com.android.volley.VolleyLog;
+
+/**
+ * An {@link ImageRequest} that shows low-resolution previews while a large image downloads.
+ *
+ * <p>Whenever the body read so far reaches one of the preview thresholds, the bytes received are
+ * decoded at a quarter of the final resolution and delivered to the listener as an {@link
+ * Response#intermediate} response. Progressive JPEGs yield a blurry version of the whole image,
+ * baseline JPEGs the part received so far. The full decode is delivered last, as for an {@link
+ * ImageRequest}, so the listener is called once per preview and then once more.
+ *
+ * <p>Previews are decoded on the network thread and count against the {@link DecodeScheduler}
+ * budget like any other decode.
+ */
+public class ProgressiveImageRequest extends ImageRequest {
+
+    /** Body sizes at which previews are decoded if none are given. */
+    private static final int[] DEFAULT_PREVIEW_THRESHOLDS = {32 * 1024, 128 * 1024};
+
+    /** How much smaller than the final image previews are decoded, per side. */
+    private static final int PREVIEW_SAMPLE_FACTOR = 4;
+
+    /**
+     * Creates a new progressive image request. See {@link ImageRequest#ImageRequest(String,
+     * Response.Listener, int, int, ScaleType, Config, Response.ErrorListener)} for the meaning of
+     * the other parameters.
+     *
+     * @param previewThresholdBytes body sizes at which to decode and deliver a preview, or none
+     *     for 32 KB and 128 KB
+     */
+    public ProgressiveImageRequest(
+            String url,
+            Response.Listener<Bitmap> listener,
+            int maxWidth,
+            int maxHeight,
+            ScaleType scaleType,
+            Config decodeConfig,
+            @Nullable Response.ErrorListener errorListener,
+            int... previewThresholdBytes) {
+        super(url, listener, maxWidth, maxHeight, scaleType, decodeConfig, errorListener);
+        setPartialBodyListener(
+                new Response.PartialBodyListener() {
+                    @Override
+                    public void onPartialBody(byte[] data, int length) {
+                        Bitmap preview = decodePreview(data, length);
+                        if (preview != null) {
+                            postIntermediateResponse(preview);
+                        }
+                    }
+                },
+                previewThresholdBytes.length > 0
+                        ? previewThresholdBytes
+                        : DEFAULT_PREVIEW_THRESHOLDS);
+    }
+
+    /** Decodes a preview from the start of the body, or returns null if that isn't possible. */
+    @Nullable
+    private Bitmap decodePreview(byte[] data, int length) {
+        if (isCanceled()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // The image header hasn't arrived yet.
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize =
+                getSampleSize(options.outWidth, options.outHeight) * PREVIEW_SAMPLE_FACTOR;
+        options.inPreferredConfig = Config.RGB_565;
+        long decodeBytes =
+                (long) ((options.outWidth + options.inSampleSize - 1) / options.inSampleSize)
+                        * ((options.outHeight + options.inSampleSize - 1) / options.inSampleSize)
+                        * DecodeScheduler.bytesPerPixel(Config.RGB_565);
+
+        DecodeScheduler scheduler = getDecodeScheduler();
+        try {
+            scheduler.acquire(decodeBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (OutOfMemoryError e) {
+            VolleyLog.e("Caught OOM decoding %d byte preview, url=%s", length, getUrl());
+            return null;
+        } finally {
+            scheduler.release(decodeBytes);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip-compresses request bodies as they are written to the connection.
+ *
+ * <p>Compression is opt-in: install an instance with {@link
+ * HurlStack#setRequestBodyCompressor(RequestBodyCompressor)}. Bodies smaller than the minimum size
+ * are sent unchanged, since the gzip header and the CPU cost outweigh the savings. Not every server
+ * accepts {@code Content-Encoding: gzip} on requests, so compression can be switched on or off per
+ * host. Compressed bodies are sent with chunked transfer encoding, since their length is only known
+ * once they have been written.
+ */
+public class RequestBodyCompressor {
+
+    /** Default minimum body size, in bytes, below which bodies are sent uncompressed. */
+    public static final int DEFAULT_MIN_SIZE_BYTES = 1024;
+
+    /** Value of the Content-Encoding header for compressed bodies. */
+    static final String ENCODING_GZIP = "gzip";
+
+    /** Size of the deflater's output buffer. */
+    private static final int GZIP_BUFFER_SIZE = 4096;
+
+    private final int mMinSizeBytes;
+
+    private final boolean mEnabledByDefault;
+
+    /** Per-host overrides of {@link #mEnabledByDefault}, keyed by lower-case host name. */
+    private final Map<String, Boolean> mHostOverrides = new ConcurrentHashMap<>();
+
+    /** Creates a compressor that is enabled for all hosts and uses the default minimum size. */
+    public RequestBodyCompressor() {
+        this(DEFAULT_MIN_SIZE_BYTES, /* enabledByDefault= */ true);
+    }
+
+    /**
+     * @param minSizeBytes bodies smaller than this are sent uncompressed
+     * @param enabledByDefault whether hosts without an explicit setting should receive compressed
+     *     bodies
+     */
+    public RequestBodyCompressor(int minSizeBytes, boolean enabledByDefault) {
+        mMinSizeBytes = minSizeBytes;
+        mEnabledByDefault = enabledByDefault;
+    }
+
+    /**
+     * Sets whether the given host accepts gzip-encoded request bodies, overriding the default.
+     *
+     * @param host host name, as it appears in request URLs
+     * @param supported true to compress bodies sent to this host
+     */
+    public void setHostSupported(String host, boolean supported) {
+        mHostOverrides.put(host.toLowerCase(Locale.US), supported);
+    }
+
+    /** Removes any per-host setting for the given host so that the default applies again. */
+    public void clearHostSupported(String host) {
+        mHostOverrides.remove(host.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Returns whether a body of the given size sent to the given URL should be compressed.
+     *
+     * @param url the URL the body will be sent to
+     * @param contentLength the uncompressed body size, or -1 if unknown
+     */
+    public boolean shouldCompress(URL url, long contentLength) {
+        if (contentLength >= 0 && contentLength < mMinSizeBytes) {
+            return false;
+        }
+        String host = url.getHost();
+        Boolean override = host == null ? null : mHostOverrides.get(host.toLowerCase(Locale.US));
+        return override != null ? override : mEnabledByDefault;
+    }
+
+    /**
+     * Wraps the connection's output stream so that everything written to it is compressed. Closing
+     * the returned stream finishes the gzip trailer and closes the underlying stream.
+     */
+    public OutputStream wrap(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+import com.android.volley.AuthFailureError;
+import com.android.volley.CanceledError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downloads a large resource into a file over several connections at once.
+ *
+ * <p>A HEAD request first finds the resource's length and whether the server accepts byte ranges.
+ * If it does, the resource is split into ranges of at most {@link #MAX_RANGE_BYTES}, up to {@code
+ * segmentCount} of which are requested concurrently, so they are spread over the network
+ * dispatchers of the queue. Each range is written to its position in the file as soon as it
+ * arrives, through a file handle of its own. Otherwise, or if the resource is too small to be
+ * worth splitting, it is fetched as a single stream. Each range is retried on its own according to
+ * its retry policy, and If-Range keeps ranges of different versions from being mixed.
+ *
+ * <pre>
+ * new SegmentedDownload(url, file, 4, listener, errorListener).start(requestQueue);
+ * </pre>
+ *
+ * <p>Each range is held in memory while it is written, which is why ranges are capped in size. A
+ * resource fetched as a single stream is held in memory as a whole.
+ */
+public class SegmentedDownload {
+
+    /** Default number of ranges to request concurrently. */
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+
+    /** Resources are not split into ranges smaller than this. */
+    public static final long MIN_SEGMENT_BYTES = 256 * 1024;
+
+    /** Resources are split into ranges no larger than this, bounding the memory each one needs. */
+    public static final long MAX_RANGE_BYTES = 1024 * 1024;
+
+    private final String mUrl;
+    private final File mDestination;
+    private final int mSegmentCount;
+    private final Response.Listener<File> mListener;
+    private final Response.ErrorListener mErrorListener;
+
+    /** Requests in flight, so that they can be cancelled. */
+    @GuardedBy("this")
+    private final List<Request<?>> mRequests = new ArrayList<>();
+
+    /** Ranges waiting for one in flight to finish. */
+    @GuardedBy("this")
+    private final LinkedList<SegmentRequest> mPending = new LinkedList<>();
+
+    @GuardedBy("this")
+    @Nullable
+    private RequestQueue mQueue;
+
+    @GuardedBy("this")
+    private int mRemaining;
+
+    @GuardedBy("this")
+    private boolean mFinished;
+
+    /**
+     * @param url URL of the resource
+     * @param destination file to write the resource to; it is overwritten
+     * @param segmentCount maximum number of ranges to request concurrently
+     * @param listener receives the file once it is complete
+     * @param errorListener receives the first error if the download fails
+     */
+    public SegmentedDownload(
+            String url,
+            File destination,
+            int segmentCount,
+            Response.Listener<File> listener,
+            Response.ErrorListener errorListener) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be positive");
+        }
+        mUrl = url;
+        mDestination = destination;
+        mSegmentCount = segmentCount;
+        mListener = listener;
+        mErrorListener = errorListener;
+    }
+
+    /** Starts the download by adding its requests to the given queue. */
+    public void start(final RequestQueue queue) {
+        Request<NetworkResponse> probe =
+                new ProbeRequest(
+                        mUrl,
+                        new Response.Listener<NetworkResponse>() {
+                            @Override
+                            public void onResponse(NetworkResponse response) {
+                                onProbed(queue, response);
+                            }
+                        },
+                        new Response.ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                fail(error);
+                            }
+                        });
+        synchronized (this) {
+            mQueue = queue;
+            mRequests.add(probe);
+        }
+        queue.add(probe);
+    }
+
+    /** Cancels the download. No listener is called afterwards. */
+    public void cancel() {
+        List<Request<?>> requests;
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            requests = new ArrayList<>(mRequests);
+            mPending.clear();
+        }
+        for (Request<?> request : requests) {
+            request.cancel();
+        }
+    }
+
+    private void onProbed(RequestQueue queue, NetworkResponse probe) {
+        long length = parseLength(probe.headers.get("Content-Length"));
+        String acceptRanges = probe.headers.get("Accept-Ranges");
+        String validator = probe.headers.get("ETag");
+        if (validator == null) {
+            validator = probe.headers.get("Last-Modified");
+        }
+        int segments = 1;
+        if (length > 0 && acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("bytes")) {
+            segments = (int) Math.max(1, Math.min(mSegmentCount, length / MIN_SEGMENT_BYTES));
+        }
+
+        List<SegmentRequest> requests = new ArrayList<>();
+        if (segments == 1) {
+            requests.add(new SegmentRequest(this, 0, /* end= */ -1, null));
+        } else {
+            long ranges = Math.max(segments, (length + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+            long rangeLength = (length + ranges - 1) / ranges;
+            for (long start = 0; start < length; start += rangeLength) {
+                long end = Math.min(start + rangeLength, length) - 1;
+                requests.add(new SegmentRequest(this, start, end, validator));
+            }
+        }
+
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+        }
+        try {
+            // Size the file up front. Each range then writes through a handle of its own, so no
+            // writer is left holding a channel that another thread has closed.
+            RandomAccessFile file = new RandomAccessFile(mDestination, "rw");
+            try {
+                file.setLength(segments > 1 ? length : 0);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            fail(new VolleyError(e));
+            return;
+        }
+
+        List<SegmentRequest> started;
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mRemaining = requests.size();
+            started = new ArrayList<>(requests.subList(0, Math.min(segments, requests.size())));
+            mPending.addAll(requests.subList(started.size(), requests.size()));
+            mRequests.clear();
+            mRequests.addAll(started);
+        }
+        for (SegmentRequest request : started) {
+            queue.add(request);
+        }
+    }
+
+    private void onSegmentDone(SegmentRequest done) {
+        boolean complete;
+        SegmentRequest next = null;
+        RequestQueue queue;
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mRequests.remove(done);
+            complete = --mRemaining == 0;
+            mFinished = complete;
+            if (!complete) {
+                next = mPending.poll();
+                if (next != null) {
+                    mRequests.add(next);
+                }
+            }
+            queue = mQueue;
+        }
+        if (complete) {
+            mListener.onResponse(mDestination);
+        } else if (next != null) {
+            queue.add(next);
+        }
+    }
+
+    private void fail(VolleyError error) {
+        List<Request<?>> requests;
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            requests = new ArrayList<>(mRequests);
+            mPending.clear();
+        }
+        for (Request<?> request : requests) {
+            request.cancel();
+        }
+        mErrorListener.onErrorResponse(error);
+    }
+
+    private static long parseLength(@Nullable String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** A HEAD request that delivers the raw response. */
+    private static class ProbeRequest extends Request<NetworkResponse> {
+        private final Response.Listener<NetworkResponse> mListener;
+
+        ProbeRequest(
+                String url,
+                Response.Listener<NetworkResponse> listener,
+                Response.ErrorListener errorListener) {
+            super(Method.HEAD, url, errorListener);
+            mListener = listener;
+            setShouldCache(false);
+        }
+
+        @Override
+        protected Response<NetworkResponse> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(response, null);
+        }
+
+        @Override
+        protected void deliverResponse(NetworkResponse response) {
+            mListener.onResponse(response);
+        }
+    }
+
+    /**
+     * Fetches one byte range, or the whole resource if {@code end} is negative, and writes it to
+     * the file on the network thread through its own file handle.
+     */
+    private static class SegmentRequest extends Request<Long> {
+        private final SegmentedDownload mDownload;
+        private final long mStart;
+        private final long mEnd;
+        @Nullable private final String mValidator;
+
+        SegmentRequest(
+                final SegmentedDownload download,
+                long start,
+                long end,
+                @Nullable String validator) {
+            super(
+                    Method.GET,
+                    download.mUrl,
+                    new Response.ErrorListener() {
+                        @Override
+                        public void onErrorResponse(VolleyError error) {
+                            download.fail(error);
+                        }
+                    });
+            mDownload = download;
+            mStart = start;
+            mEnd = end;
+            mValidator = validator;
+            setShouldCache(false);
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            if (mEnd < 0) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Range", "bytes=" + mStart + "-" + mEnd);
+            if (mValidator != null) {
+                headers.put("If-Range", mValidator);
+            }
+            return headers;
+        }
+
+        @Override
+        protected Response<Long> parseNetworkResponse(NetworkResponse response) {
+            int length = response.dataLength;
+            if (mEnd >= 0) {
+                String expected = "bytes " + mStart + "-" + mEnd + "/";
+                String range = response.headers.get("Content-Range");
+                if (response.statusCode != 206 || range == null || !range.startsWith(expected)) {
+                    // The server sent the whole resource or a different version of it.
+                    return Response.error(new ParseError(response));
+                }
+                if (length != mEnd - mStart + 1) {
+                    return Response.error(new ParseError(response));
+                }
+            }
+            try {
+                RandomAccessFile file = new RandomAccessFile(mDownload.mDestination, "rw");
+                try {
+                    FileChannel channel = file.getChannel();
+                    ByteBuffer buffer = ByteBuffer.wrap(response.data, 0, length);
+                    long position = mStart;
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                } finally {
+                    file.close();
+                }
+            } catch (ClosedChannelException e) {
+                // The dispatcher was interrupted, e.g. because the queue is stopping.
+                return Response.error(new CanceledError());
+            } catch (IOException e) {
+                return Response.error(new VolleyError(e));
+            }
+            return Response.success((long) length, null);
+        }
+
+        @Override
+        protected void deliverResponse(Long length) {
+            mDownload.onSegmentDone(this);
+        }
+    }
+}
@@ -88,12 +88,17 @@ public class StringRequest extends Request<String> {
     protected Response<String> parseNetworkResponse(NetworkResponse response) {
         String parsed;
         try {
-            parsed = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+            parsed =
+                    new String(
+                            response.data,
+                            0,
+                            response.dataLength,
+                            HttpHeaderParser.parseCharset(response.headers));
         } catch (UnsupportedEncodingException e) {
             // Since minSdkVersion = 8, we can't call
             // new String(response.data, Charset.defaultCharset())
             // So suppress the warning instead.
-            parsed = new String(response.data);
+            parsed = new String(response.data, 0, response.dataLength);
         }
         return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(response));
     }
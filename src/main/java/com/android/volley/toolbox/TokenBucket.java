@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.os.SystemClock;
+import android.support.annotation.GuardedBy;
+
+/**
+ * A token bucket that limits the rate at which bytes are read, e.g. to keep background prefetching
+ * from competing with user-visible requests for bandwidth.
+ *
+ * <p>The bucket holds up to {@code burstBytes} tokens and is refilled at {@code bytesPerSecond}.
+ * Reading consumes one token per byte; a read that overdraws the bucket makes the reading thread
+ * sleep until the debt is repaid. Share one bucket between requests to cap their combined rate.
+ * Install buckets with {@link BasicNetwork#setPriorityBandwidthLimit} or {@link
+ * BasicNetwork#setTagBandwidthLimit}. This class is thread-safe.
+ */
+public class TokenBucket {
+
+    private final long mBytesPerSecond;
+    private final long mBurstBytes;
+
+    /** Available tokens; negative while readers are waiting for the bucket to refill. */
+    @GuardedBy("this")
+    private long mTokens;
+
+    @GuardedBy("this")
+    private long mLastRefillMs;
+
+    /**
+     * @param bytesPerSecond sustained rate limit
+     * @param burstBytes number of bytes that may be read at once after a pause
+     */
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        if (bytesPerSecond <= 0 || burstBytes <= 0) {
+            throw new IllegalArgumentException("Rate and burst size must be positive");
+        }
+        mBytesPerSecond = bytesPerSecond;
+        mBurstBytes = burstBytes;
+        mTokens = burstBytes;
+        mLastRefillMs = SystemClock.elapsedRealtime();
+    }
+
+    /** Returns the sustained rate limit in bytes per second. */
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Takes tokens for the given number of bytes, sleeping if the bucket is overdrawn.
+     *
+     * @param bytes number of bytes read
+     * @throws InterruptedException if the thread is interrupted while sleeping
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long waitMs = take(bytes);
+        if (waitMs > 0) {
+            Thread.sleep(waitMs);
+        }
+    }
+
+    /** Takes tokens for the given number of bytes and returns how long to wait for them. */
+    /* package */ synchronized long take(int bytes) {
+        refill(SystemClock.elapsedRealtime());
+        mTokens -= bytes;
+        return mTokens >= 0 ? 0 : (-mTokens * 1000 + mBytesPerSecond - 1) / mBytesPerSecond;
+    }
+
+    @GuardedBy("this")
+    private void refill(long nowMs) {
+        long added = (nowMs - mLastRefillMs) * mBytesPerSecond / 1000;
+        if (added > 0) {
+            // Leave the clock alone until a whole token is due, so short intervals add up.
+            mTokens = Math.min(mBurstBytes, mTokens + added);
+            mLastRefillMs = nowMs;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import android.os.SystemClock;
 import com.android.volley.toolbox.StringRequest;
 import com.android.volley.utils.CacheTestUtils;
 import java.util.concurrent.BlockingQueue;
@@ -83,6 +84,16 @@ public class CacheDispatcherTest {
     }
 
     // A cancelled request should not be processed at all.
+    @Test
+    public void pastDeadlinePostsErrorWithoutLookup() throws Exception {
+        mRequest.setDeadline(SystemClock.elapsedRealtime() - 1);
+        mDispatcher.processRequest(mRequest);
+
+        verify(mCache, never()).get(anyString());
+        verify(mNetworkQueue, never()).put(any(Request.class));
+        verify(mDelivery).postError(any(Request.class), any(DeadlineExceededError.class));
+    }
+
     @Test
     public void cancelledRequest() throws Exception {
         mRequest.cancel();
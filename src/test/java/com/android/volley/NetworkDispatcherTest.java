@@ -16,7 +16,10 @@
 
 package com.android.volley;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -24,14 +27,20 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.widget.ImageView;
 import com.android.volley.toolbox.NoCache;
+import com.android.volley.toolbox.ProgressiveImageRequest;
 import com.android.volley.toolbox.StringRequest;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.BlockingQueue;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,7 +48,10 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBitmapFactory;
 
 @RunWith(RobolectricTestRunner.class)
 public class NetworkDispatcherTest {
@@ -96,6 +108,41 @@ public class NetworkDispatcherTest {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void pooledResponseIsCopiedToCacheAndReleased() throws Exception {
+        NetworkResponse.BufferRecycler recycler = mock(NetworkResponse.BufferRecycler.class);
+        byte[] buffer = Arrays.copyOf(CANNED_DATA, CANNED_DATA.length + 16);
+        when(mNetwork.performRequest(any(Request.class)))
+                .thenReturn(
+                        new NetworkResponse(
+                                200,
+                                buffer,
+                                CANNED_DATA.length,
+                                /* notModified= */ false,
+                                /* networkTimeMs= */ 0,
+                                Collections.<Header>emptyList(),
+                                recycler));
+        mDispatcher.processRequest(mRequest);
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(mDelivery).postResponse(any(Request.class), response.capture());
+        assertEquals(response.getValue().result, new String(CANNED_DATA, StandardCharsets.UTF_8));
+        ArgumentCaptor<Cache.Entry> entry = ArgumentCaptor.forClass(Cache.Entry.class);
+        verify(mCache).put(anyString(), entry.capture());
+        assertArrayEquals(CANNED_DATA, entry.getValue().data);
+        verify(recycler).recycle(buffer);
+    }
+
+    @Test
+    public void pastDeadlinePostsErrorWithoutNetwork() throws Exception {
+        mRequest.setDeadline(SystemClock.elapsedRealtime() - 1);
+        mDispatcher.processRequest(mRequest);
+
+        verify(mNetwork, never()).performRequest(any(Request.class));
+        verify(mDelivery).postError(any(Request.class), any(DeadlineExceededError.class));
+        verify(mDelivery, never()).postResponse(any(Request.class), any(Response.class));
+    }
+
     @Test
     public void exceptionPostsError() throws Exception {
         when(mNetwork.performRequest(any(Request.class))).thenThrow(new ServerError());
@@ -143,4 +190,39 @@ public class NetworkDispatcherTest {
         verify(mCache).put(eq(mRequest.getCacheKey()), entry.capture());
         assertTrue(Arrays.equals(entry.getValue().data, CANNED_DATA));
     }
+
+    @Test
+    public void progressiveImageRequestPostsPreviewBeforeImage() throws Exception {
+        final byte[] jpegBytes = "file:fake".getBytes(StandardCharsets.UTF_8);
+        ShadowBitmapFactory.provideWidthAndHeightHints("fake", 1024, 500);
+        final ProgressiveImageRequest request =
+                new ProgressiveImageRequest(
+                        "http://foo",
+                        null,
+                        0,
+                        0,
+                        ImageView.ScaleType.CENTER_INSIDE,
+                        Bitmap.Config.ARGB_8888,
+                        null,
+                        4);
+        when(mNetwork.performRequest(request))
+                .thenAnswer(
+                        new Answer<NetworkResponse>() {
+                            @Override
+                            public NetworkResponse answer(InvocationOnMock invocation) {
+                                request.getPartialBodyListener()
+                                        .onPartialBody(jpegBytes, jpegBytes.length);
+                                return new NetworkResponse(jpegBytes);
+                            }
+                        });
+
+        mDispatcher.processRequest(request);
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(mDelivery, times(2)).postResponse(eq(request), response.capture());
+        assertTrue(response.getAllValues().get(0).intermediate);
+        assertNotNull(response.getAllValues().get(0).result);
+        assertFalse(response.getAllValues().get(1).intermediate);
+        assertNotNull(response.getAllValues().get(1).result);
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.volley.Request.Priority;
+import com.android.volley.mock.ShadowSystemClock;
+import com.android.volley.toolbox.NoCache;
+import com.android.volley.utils.ImmediateResponseDelivery;
+import java.util.concurrent.PriorityBlockingQueue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = {ShadowSystemClock.class})
+public class PriorityAgingPolicyTest {
+
+    private int mSequence = 0;
+
+    @Test
+    public void ordersByPriorityWhenAddedTogether() {
+        PriorityAgingPolicy policy = new PriorityAgingPolicy(1000);
+        TestRequest low = newRequest(Priority.LOW, 0);
+        TestRequest low2 = newRequest(Priority.LOW, 0);
+        TestRequest high = newRequest(Priority.HIGH, 0);
+
+        assertTrue(policy.compare(high, low) < 0);
+        assertTrue(policy.compare(low, high) > 0);
+        assertTrue(policy.compare(low, low2) < 0);
+    }
+
+    @Test
+    public void waitingRequestsOvertakeNewerHigherPriorities() {
+        PriorityAgingPolicy policy = new PriorityAgingPolicy(1000);
+        TestRequest low = newRequest(Priority.LOW, 0);
+        TestRequest immediate = newRequest(Priority.IMMEDIATE, 3001);
+        TestRequest normal = newRequest(Priority.NORMAL, 500);
+
+        assertTrue(policy.compare(low, immediate) < 0);
+        assertTrue(policy.compare(normal, low) < 0);
+
+        PriorityBlockingQueue<Request<?>> queue = new PriorityBlockingQueue<>(11, policy);
+        queue.add(immediate);
+        queue.add(low);
+        queue.add(normal);
+        assertSame(normal, queue.poll());
+        assertSame(low, queue.poll());
+        assertSame(immediate, queue.poll());
+    }
+
+    @Test
+    public void customWeights() {
+        // LOW can never catch up with IMMEDIATE within a minute.
+        PriorityAgingPolicy policy = new PriorityAgingPolicy(1000, new int[] {0, 1, 2, 60});
+        TestRequest low = newRequest(Priority.LOW, 0);
+        TestRequest immediate = newRequest(Priority.IMMEDIATE, 30000);
+
+        assertTrue(policy.compare(immediate, low) < 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongNumberOfWeights() {
+        new PriorityAgingPolicy(1000, new int[] {0, 1});
+    }
+
+    @Test
+    public void queueWaitMetrics() {
+        RequestQueue queue =
+                new RequestQueue(
+                        new NoCache(),
+                        new NoNetwork(),
+                        0,
+                        new ImmediateResponseDelivery(),
+                        new PriorityAgingPolicy(1000));
+        QueueWaitMetrics metrics = new QueueWaitMetrics();
+        queue.addRequestEventListener(metrics);
+        TestRequest request = new TestRequest(Priority.LOW);
+        queue.add(request);
+        // ShadowSystemClock always returns 0, so pretend the request was added earlier.
+        request.setEnqueueTimeMs(-250);
+        request.sendEvent(RequestQueue.RequestEvent.REQUEST_NETWORK_DISPATCH_STARTED);
+
+        assertEquals(1, metrics.getCount(Priority.LOW));
+        assertEquals(250, metrics.getAverageWaitMs(Priority.LOW));
+        assertEquals(250, metrics.getMaxWaitMs(Priority.LOW));
+        assertEquals(0, metrics.getCount(Priority.HIGH));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(Priority.LOW));
+    }
+
+    private TestRequest newRequest(Priority priority, long enqueueTimeMs) {
+        TestRequest request = new TestRequest(priority);
+        request.setSequence(mSequence++);
+        request.setEnqueueTimeMs(enqueueTimeMs);
+        return request;
+    }
+
+    private static class TestRequest extends Request<Object> {
+        private final Priority mPriority;
+
+        TestRequest(Priority priority) {
+            super(Request.Method.GET, "", null);
+            mPriority = priority;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        protected void deliverResponse(Object response) {}
+
+        @Override
+        protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+    }
+
+    private static class NoNetwork implements Network {
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            throw new VolleyError();
+        }
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.android.volley;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -23,10 +26,18 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import com.android.volley.Request.Priority;
+import com.android.volley.mock.MockRequest;
 import com.android.volley.mock.ShadowSystemClock;
 import com.android.volley.toolbox.NoCache;
 import com.android.volley.toolbox.StringRequest;
 import com.android.volley.utils.ImmediateResponseDelivery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -74,6 +85,61 @@ public class RequestQueueTest {
         verify(req4, never()).cancel(); // A added after cancel not cancelled
     }
 
+    @Test
+    public void cancelAll_tagChangedAfterAdd() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        Object tagA = new Object();
+        Object tagB = new Object();
+        MockRequest req1 = new MockRequest();
+        req1.setTag(tagA);
+        MockRequest req2 = new MockRequest();
+
+        queue.add(req1);
+        queue.add(req2);
+        req1.setTag(tagB);
+        req2.setTag(tagA);
+        queue.cancelAll(tagA);
+
+        assertFalse(req1.cancel_called);
+        assertTrue(req2.cancel_called);
+    }
+
+    @Test
+    public void cancelAll_tagEqualityIsByIdentity() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        MockRequest req1 = new MockRequest();
+        req1.setTag(new String("tag"));
+        MockRequest req2 = new MockRequest();
+        String tag = new String("tag");
+        req2.setTag(tag);
+
+        queue.add(req1);
+        queue.add(req2);
+        queue.cancelAll(tag);
+
+        assertFalse(req1.cancel_called);
+        assertTrue(req2.cancel_called);
+    }
+
+    @Test
+    public void cancelAll_skipsFinishedRequests() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        Object tag = new Object();
+        MockRequest req1 = new MockRequest();
+        req1.setTag(tag);
+        MockRequest req2 = new MockRequest();
+        req2.setTag(tag);
+
+        queue.add(req1);
+        queue.add(req2);
+        queue.finish(req1);
+        assertEquals(1, queue.getQueueDepth());
+        queue.cancelAll(tag);
+
+        assertFalse(req1.cancel_called);
+        assertTrue(req2.cancel_called);
+    }
+
     @Test
     public void add_notifiesListener() throws Exception {
         RequestQueue.RequestEventListener listener = mock(RequestQueue.RequestEventListener.class);
@@ -114,6 +180,29 @@ public class RequestQueueTest {
         verifyNoMoreInteractions(listener);
     }
 
+    @Test
+    public void sendRequestEvent_onlySubscribedEvents() throws Exception {
+        StringRequest req = mock(StringRequest.class);
+        RequestQueue.RequestEventListener listener = mock(RequestQueue.RequestEventListener.class);
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.addRequestEventListener(
+                listener,
+                RequestQueue.RequestEvent.REQUEST_QUEUED,
+                RequestQueue.RequestEvent.REQUEST_FINISHED);
+
+        queue.sendRequestEvent(req, RequestQueue.RequestEvent.REQUEST_NETWORK_DISPATCH_STARTED);
+        queue.sendRequestEvent(req, RequestQueue.RequestEvent.REQUEST_FINISHED);
+
+        verify(listener).onRequestEvent(req, RequestQueue.RequestEvent.REQUEST_FINISHED);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addRequestEventListener_unknownEvent() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.addRequestEventListener(mock(RequestQueue.RequestEventListener.class), 32);
+    }
+
     @Test
     public void removeRequestEventListener_removesListener() throws Exception {
         StringRequest req = mock(StringRequest.class);
@@ -126,4 +215,173 @@ public class RequestQueueTest {
 
         verifyNoMoreInteractions(listener);
     }
+
+    @Test
+    public void queueCapacity_reject() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.setQueueCapacity(2, RequestQueue.OverflowPolicy.REJECT);
+        MockRequest req1 = new MockRequest();
+        MockRequest req2 = new MockRequest();
+        MockRequest req3 = new MockRequest();
+
+        queue.add(req1);
+        queue.add(req2);
+        queue.add(req3);
+
+        assertFalse(req1.deliverError_called);
+        assertFalse(req2.deliverError_called);
+        assertTrue(req3.deliverError_called);
+        assertEquals(2, queue.getQueueDepth());
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    public void queueCapacity_dropLowestPriority() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.setQueueCapacity(2, RequestQueue.OverflowPolicy.DROP_LOWEST_PRIORITY);
+        MockRequest low = newRequest(Priority.LOW);
+        MockRequest high = newRequest(Priority.HIGH);
+        MockRequest normal = newRequest(Priority.NORMAL);
+        MockRequest low2 = newRequest(Priority.LOW);
+
+        queue.add(low);
+        queue.add(high);
+        queue.add(normal);
+        assertTrue(low.deliverError_called);
+        assertFalse(high.deliverError_called);
+        assertFalse(normal.deliverError_called);
+
+        // A new request that would be dispatched last is turned away itself.
+        queue.add(low2);
+        assertTrue(low2.deliverError_called);
+        assertFalse(normal.deliverError_called);
+        assertEquals(2, queue.getQueueDepth());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    public void queueCapacity_dropOldest() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.setQueueCapacity(2, RequestQueue.OverflowPolicy.DROP_OLDEST);
+        MockRequest req1 = newRequest(Priority.HIGH);
+        MockRequest req2 = newRequest(Priority.LOW);
+        MockRequest req3 = newRequest(Priority.LOW);
+
+        queue.add(req1);
+        queue.add(req2);
+        queue.add(req3);
+
+        assertTrue(req1.deliverError_called);
+        assertFalse(req2.deliverError_called);
+        assertFalse(req3.deliverError_called);
+        assertEquals(2, queue.getQueueDepth());
+    }
+
+    @Test
+    public void queueCapacity_postsErrorOutsideLock() throws Exception {
+        final RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.setQueueCapacity(1, RequestQueue.OverflowPolicy.DROP_OLDEST);
+        final MockRequest req3 = new MockRequest();
+        final boolean[] otherThreadAdded = new boolean[1];
+        StringRequest req1 =
+                new StringRequest(
+                        "http://foo",
+                        null,
+                        new Response.ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                // Another thread adding a request must not wait on this one.
+                                Thread adder =
+                                        new Thread() {
+                                            @Override
+                                            public void run() {
+                                                queue.add(req3);
+                                            }
+                                        };
+                                adder.start();
+                                try {
+                                    adder.join(1000);
+                                } catch (InterruptedException e) {
+                                    throw new AssertionError(e);
+                                }
+                                otherThreadAdded[0] = !adder.isAlive();
+                            }
+                        });
+        queue.add(req1);
+
+        queue.add(new MockRequest());
+
+        assertTrue(otherThreadAdded[0]);
+        assertEquals(1, queue.getDroppedCount());
+        // The new request wasn't queued yet, so the other thread's request had nothing to drop.
+        assertTrue(req3.deliverError_called);
+    }
+
+    @Test
+    public void queueCapacity_block() throws Exception {
+        final RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.setQueueCapacity(1, RequestQueue.OverflowPolicy.BLOCK);
+        MockRequest req1 = new MockRequest();
+        final MockRequest req2 = new MockRequest();
+        queue.add(req1);
+
+        Thread adder =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        queue.add(req2);
+                    }
+                };
+        adder.start();
+        adder.join(100);
+        assertTrue(adder.isAlive());
+        assertEquals(1, queue.getQueueDepth());
+
+        queue.finish(req1);
+        adder.join(1000);
+        assertFalse(adder.isAlive());
+        assertFalse(req2.deliverError_called);
+        assertEquals(1, queue.getQueueDepth());
+    }
+
+    @Test
+    public void reprioritize_reordersWaitingRequest() throws Exception {
+        final List<Request<?>> order = Collections.synchronizedList(new ArrayList<Request<?>>());
+        final CountDownLatch done = new CountDownLatch(3);
+        Network network =
+                new Network() {
+                    @Override
+                    public NetworkResponse performRequest(Request<?> request) {
+                        order.add(request);
+                        done.countDown();
+                        return new NetworkResponse(new byte[0]);
+                    }
+                };
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 1, mDelivery);
+        MockRequest first = newRequest(Priority.LOW);
+        MockRequest second = newRequest(Priority.LOW);
+        MockRequest third = newRequest(Priority.LOW);
+        for (MockRequest request : Arrays.asList(first, second, third)) {
+            request.setShouldCache(false);
+            queue.add(request);
+        }
+
+        third.setPriority(Priority.HIGH);
+        assertTrue(queue.reprioritize(third));
+        queue.start();
+        try {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            queue.stop();
+        }
+
+        assertEquals(Arrays.<Request<?>>asList(third, first, second), order);
+    }
+
+    private static MockRequest newRequest(Priority priority) {
+        MockRequest request = new MockRequest();
+        request.setPriority(priority);
+        return request;
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.android.volley;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -24,10 +25,13 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import android.os.SystemClock;
 import com.android.volley.Request.Method;
 import com.android.volley.Request.Priority;
 import com.android.volley.toolbox.NoCache;
+import java.io.ByteArrayOutputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
@@ -87,6 +91,37 @@ public class RequestTest {
         }
     }
 
+    @Test
+    public void deadline() {
+        TestRequest request = new TestRequest(Priority.NORMAL);
+        assertEquals(Request.NO_DEADLINE, request.getDeadline());
+        assertFalse(request.isPastDeadline());
+        assertEquals(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, request.getTimeoutMs());
+
+        long now = SystemClock.elapsedRealtime();
+        request.setDeadline(now + 500);
+        assertFalse(request.isPastDeadline());
+        // The per-attempt timeout is clamped to the remaining budget.
+        assertTrue(request.getTimeoutMs() <= 500);
+
+        request.setDeadline(now - 1);
+        assertTrue(request.isPastDeadline());
+        assertEquals(1, request.getTimeoutMs());
+    }
+
+    @Test
+    public void deadlineAfterAdd() {
+        TestRequest request = new TestRequest(Priority.NORMAL);
+        request.setDeadlineAfterAdd(1000);
+        assertEquals(Request.NO_DEADLINE, request.getDeadline());
+
+        RequestQueue queue = new RequestQueue(new NoCache(), mNetwork, 0, mDelivery);
+        long before = SystemClock.elapsedRealtime();
+        queue.add(request);
+        assertTrue(request.getDeadline() >= before + 1000);
+        assertFalse(request.isPastDeadline());
+    }
+
     @Test
     public void urlParsing() {
         UrlParseRequest nullUrl = new UrlParseRequest(null);
@@ -204,6 +239,37 @@ public class RequestTest {
         }
     }
 
+    @Test
+    public void requestBodyMatchesBody() throws Exception {
+        final Map<String, String> params = new HashMap<>();
+        params.put("key", "value with spaces & symbols");
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longValue.append("\u00e9");
+        }
+        params.put("long", longValue.toString());
+        Request<Object> request =
+                new Request<Object>(Method.POST, "url", null) {
+                    @Override
+                    protected void deliverResponse(Object response) {}
+
+                    @Override
+                    protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+                        return null;
+                    }
+
+                    @Override
+                    protected Map<String, String> getParams() {
+                        return params;
+                    }
+                };
+        RequestBody body = request.getRequestBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertArrayEquals(request.getBody(), out.toByteArray());
+        assertEquals(out.size(), body.contentLength());
+    }
+
     @Test
     public void sendEvent_notifiesListeners() throws Exception {
         RequestQueue.RequestEventListener listener = mock(RequestQueue.RequestEventListener.class);
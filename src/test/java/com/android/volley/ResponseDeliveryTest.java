@@ -16,16 +16,25 @@
 
 package com.android.volley;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import android.os.Handler;
+import android.os.Looper;
 import com.android.volley.mock.MockRequest;
 import com.android.volley.utils.CacheTestUtils;
 import com.android.volley.utils.ImmediateResponseDelivery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.util.Scheduler;
 
 @RunWith(RobolectricTestRunner.class)
 public class ResponseDeliveryTest {
@@ -68,4 +77,61 @@ public class ResponseDeliveryTest {
         assertTrue(mRequest.deliverError_called);
         assertFalse(mRequest.deliverResponse_called);
     }
+
+    @Test
+    public void batchedDeliveryCoalescesAndKeepsOrder() {
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        scheduler.pause();
+        ExecutorDelivery delivery = new ExecutorDelivery(new Handler(Looper.getMainLooper()), 16);
+        final List<Integer> order = new ArrayList<>();
+        MockRequest canceled = new MockRequest();
+        canceled.cancel();
+
+        delivery.postResponse(mRequest, mSuccessResponse, recordTo(order, 1));
+        delivery.postResponse(canceled, mSuccessResponse, recordTo(order, 2));
+        delivery.postResponse(new MockRequest(), mSuccessResponse, recordTo(order, 3));
+
+        assertEquals(1, scheduler.size());
+        assertFalse(mRequest.deliverResponse_called);
+
+        scheduler.advanceBy(16);
+
+        assertTrue(mRequest.deliverResponse_called);
+        assertFalse(canceled.deliverResponse_called);
+        assertEquals(Arrays.asList(1, 3), order);
+
+        delivery.postError(mRequest, new ServerError());
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void requestDeliveryExecutorOverridesDefault() {
+        final List<Runnable> deferred = new ArrayList<>();
+        ExecutorDelivery delivery =
+                new ExecutorDelivery(
+                        new Executor() {
+                            @Override
+                            public void execute(Runnable command) {
+                                deferred.add(command);
+                            }
+                        });
+        MockRequest direct = new MockRequest();
+        direct.setDeliveryExecutor(ExecutorDelivery.DIRECT_EXECUTOR);
+
+        delivery.postResponse(direct, mSuccessResponse);
+        delivery.postResponse(mRequest, mSuccessResponse);
+
+        assertTrue(direct.deliverResponse_called);
+        assertFalse(mRequest.deliverResponse_called);
+        assertEquals(1, deferred.size());
+    }
+
+    private static Runnable recordTo(final List<Integer> order, final int id) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(id);
+            }
+        };
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.volley.ResponsePublisher.Kind;
+import com.android.volley.ResponsePublisher.Subscription;
+import com.android.volley.ResponsePublisher.Update;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.ImmediateResponseDelivery;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ResponsePublisherTest {
+
+    private ExecutorDelivery mDelivery;
+    private MockRequest mRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        mDelivery = new ImmediateResponseDelivery();
+        mRequest = new MockRequest();
+    }
+
+    @Test
+    public void emitsNothingWithoutDemandAndConflates() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+        byte[] stale = new byte[1];
+        byte[] fresh = new byte[2];
+
+        mRequest.publishPartialResponse(new byte[0]);
+        mDelivery.postResponse(mRequest, intermediate(stale), null);
+        assertTrue(subscriber.updates.isEmpty());
+
+        mDelivery.postResponse(mRequest, Response.success(fresh, null));
+        assertTrue(subscriber.updates.isEmpty());
+        assertEquals(0, subscriber.completed);
+
+        subscriber.subscription.request(5);
+        assertEquals(1, subscriber.updates.size());
+        assertEquals(Kind.FINAL, subscriber.updates.get(0).kind);
+        assertSame(fresh, subscriber.updates.get(0).result);
+        assertEquals(1, subscriber.completed);
+    }
+
+    @Test
+    public void emitsEveryResultWithDemand() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        mRequest.publishPartialResponse(new byte[0]);
+        mDelivery.postResponse(mRequest, intermediate(new byte[1]), null);
+        mDelivery.postResponse(mRequest, Response.success(new byte[2], null));
+
+        assertEquals(3, subscriber.updates.size());
+        assertEquals(Kind.PARTIAL, subscriber.updates.get(0).kind);
+        assertEquals(Kind.INTERMEDIATE, subscriber.updates.get(1).kind);
+        assertEquals(Kind.FINAL, subscriber.updates.get(2).kind);
+        assertEquals(1, subscriber.completed);
+    }
+
+    @Test
+    public void errorIgnoresDemand() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+        ServerError error = new ServerError();
+
+        mDelivery.postResponse(mRequest, intermediate(new byte[1]), null);
+        mDelivery.postError(mRequest, error);
+
+        assertTrue(subscriber.updates.isEmpty());
+        assertSame(error, subscriber.error);
+        assertEquals(0, subscriber.completed);
+    }
+
+    @Test
+    public void lateSubscriberReceivesLatestResult() {
+        mRequest.getResponsePublisher();
+        byte[] data = new byte[4];
+        mDelivery.postResponse(mRequest, Response.success(data, null));
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+        assertEquals(0, subscriber.completed);
+        subscriber.subscription.request(1);
+
+        assertSame(data, subscriber.updates.get(0).result);
+        assertEquals(1, subscriber.completed);
+    }
+
+    @Test
+    public void cancelStopsSignals() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+
+        mDelivery.postResponse(mRequest, Response.success(new byte[1], null));
+
+        assertTrue(subscriber.updates.isEmpty());
+        assertEquals(0, subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void notModifiedRefreshEmitsFinal() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        byte[] cached = new byte[1];
+
+        mDelivery.postResponse(mRequest, intermediate(cached), null);
+        Request<byte[]> request = mRequest;
+        request.publishNotModified();
+        request.finish("not-modified");
+
+        assertEquals(2, subscriber.updates.size());
+        assertEquals(Kind.INTERMEDIATE, subscriber.updates.get(0).kind);
+        assertEquals(Kind.FINAL, subscriber.updates.get(1).kind);
+        assertSame(cached, subscriber.updates.get(1).result);
+        assertEquals(1, subscriber.completed);
+    }
+
+    @Test
+    public void canceledRequestSignalsError() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(subscriber);
+
+        mRequest.cancel();
+        ((Request<byte[]>) mRequest).finish("canceled");
+
+        assertTrue(subscriber.error instanceof CanceledError);
+        assertEquals(0, subscriber.completed);
+
+        RecordingSubscriber late = new RecordingSubscriber();
+        mRequest.getResponsePublisher().subscribe(late);
+        assertNotNull(late.error);
+    }
+
+    private static Response<byte[]> intermediate(byte[] data) {
+        Response<byte[]> response = Response.success(data, null);
+        response.intermediate = true;
+        return response;
+    }
+
+    private static class RecordingSubscriber implements ResponsePublisher.Subscriber<byte[]> {
+        Subscription subscription;
+        final List<Update<byte[]>> updates = new ArrayList<>();
+        VolleyError error;
+        int completed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Update<byte[]> update) {
+            updates.add(update);
+        }
+
+        @Override
+        public void onError(VolleyError error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed++;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.mock;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+/** A BitmapFactory shadow that also applies inDensity/inTargetDensity scaling, like Android does. */
+@Implements(BitmapFactory.class)
+public class ShadowScalingBitmapFactory extends ShadowBitmapFactory {
+    @Implementation
+    public static Bitmap decodeByteArray(
+            byte[] data, int offset, int length, BitmapFactory.Options options) {
+        Bitmap bitmap = ShadowBitmapFactory.decodeByteArray(data, offset, length, options);
+        if (bitmap == null
+                || options == null
+                || !options.inScaled
+                || options.inDensity == 0
+                || options.inTargetDensity == 0
+                || options.inDensity == options.inTargetDensity) {
+            return bitmap;
+        }
+        float scale = (float) options.inTargetDensity / options.inDensity;
+        Bitmap scaled =
+                Bitmap.createBitmap(
+                        (int) (bitmap.getWidth() * scale + 0.5f),
+                        (int) (bitmap.getHeight() * scale + 0.5f),
+                        bitmap.getConfig());
+        scaled.setDensity(options.inTargetDensity);
+        return scaled;
+    }
+}
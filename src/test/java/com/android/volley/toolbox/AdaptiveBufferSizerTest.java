@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class AdaptiveBufferSizerTest {
+
+    @Test
+    public void keyFor() {
+        assertEquals(
+                "example.com/images",
+                AdaptiveBufferSizer.keyFor("http://example.com/images/a.png"));
+        assertEquals("example.com/api", AdaptiveBufferSizer.keyFor("https://example.com/api?x=1"));
+        assertEquals("example.com:8080", AdaptiveBufferSizer.keyFor("http://example.com:8080"));
+        assertEquals("example.com", AdaptiveBufferSizer.keyFor("http://example.com?q=/a"));
+    }
+
+    @Test
+    public void contentLengthTakesPrecedence() {
+        AdaptiveBufferSizer sizer = new AdaptiveBufferSizer();
+        sizer.recordResponse("key", 100000, 1024);
+        assertEquals(42, sizer.getInitialSize("key", 42));
+    }
+
+    @Test
+    public void learnsResponseSize() {
+        AdaptiveBufferSizer sizer = new AdaptiveBufferSizer();
+        assertEquals(-1, sizer.getInitialSize("key", -1));
+        for (int i = 0; i < 50; i++) {
+            sizer.recordResponse("key", 100000, 4096);
+        }
+        int size = sizer.getInitialSize("key", -1);
+        assertTrue(size >= 100000 && size < 110000);
+        assertEquals(4096, sizer.getChunkSize("key"));
+        assertEquals(AdaptiveBufferSizer.MIN_CHUNK_SIZE, sizer.getChunkSize("other"));
+    }
+
+    @Test
+    public void chunkSizeIsBounded() {
+        AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(/* maxKeys= */ 4, 8192);
+        assertEquals(8192, sizer.growChunkSize(8192));
+        sizer.recordResponse("key", 10, 1 << 20);
+        assertEquals(8192, sizer.getChunkSize("key"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedKey() {
+        AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(/* maxKeys= */ 2, 8192);
+        sizer.recordResponse("a", 10, 1024);
+        sizer.recordResponse("b", 10, 1024);
+        sizer.getChunkSize("a");
+        sizer.recordResponse("c", 10, 1024);
+        List<AdaptiveBufferSizer.Stats> stats = sizer.getStats();
+        assertEquals(2, stats.size());
+        assertEquals("a", stats.get(0).key);
+        assertEquals("c", stats.get(1).key);
+    }
+}
@@ -17,19 +17,32 @@
 package com.android.volley.toolbox;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import android.os.SystemClock;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Cache.Entry;
+import com.android.volley.ClientError;
+import com.android.volley.DeadlineExceededError;
 import com.android.volley.Header;
+import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.RetryPolicy;
@@ -40,18 +53,27 @@ import com.android.volley.mock.MockHttpStack;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 
 @RunWith(RobolectricTestRunner.class)
@@ -60,6 +82,8 @@ public class BasicNetworkTest {
     @Mock private Request<String> mMockRequest;
     @Mock private RetryPolicy mMockRetryPolicy;
 
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         initMocks(this);
@@ -317,6 +341,433 @@ public class BasicNetworkTest {
         }
     }
 
+    @Test
+    public void pooledResponseBuffer() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        InputStream responseStream =
+                new ByteArrayInputStream("foobar".getBytes(StandardCharsets.UTF_8));
+        HttpResponse fakeResponse =
+                new HttpResponse(200, Collections.<Header>emptyList(), 6, responseStream);
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        ByteArrayPool pool = new ByteArrayPool(4096);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack, pool);
+        Request<String> request = buildRequest();
+        request.setShouldUsePooledResponseBuffer(true);
+        NetworkResponse response = httpNetwork.performRequest(request);
+        assertTrue(response.isPooled());
+        assertEquals(6, response.dataLength);
+        assertEquals(
+                "foobar",
+                new String(response.data, 0, response.dataLength, StandardCharsets.UTF_8));
+
+        response.release();
+        assertFalse(response.isPooled());
+        assertSame(response.data, pool.getBuf(response.data.length));
+    }
+
+    @Test
+    public void pastDeadlineFailsBeforeFirstAttempt() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        Request<String> request = buildRequest();
+        request.setDeadline(SystemClock.elapsedRealtime() - 1);
+        try {
+            httpNetwork.performRequest(request);
+            fail("Should have thrown DeadlineExceededError");
+        } catch (DeadlineExceededError e) {
+            // expected
+        }
+        assertNull(mockHttpStack.getLastHeaders());
+    }
+
+    @Test
+    public void retriesStopAtDeadline() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        mockHttpStack.setExceptionToThrow(new SocketTimeoutException());
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        Request<String> request = buildRequest();
+        request.setRetryPolicy(mMockRetryPolicy);
+        request.setDeadline(SystemClock.elapsedRealtime() + 500);
+        // Retrying uses up the remaining budget.
+        doAnswer(
+                        new Answer<Void>() {
+                            @Override
+                            public Void answer(InvocationOnMock invocation) {
+                                SystemClock.sleep(1000);
+                                return null;
+                            }
+                        })
+                .when(mMockRetryPolicy)
+                .retry(any(VolleyError.class));
+        try {
+            httpNetwork.performRequest(request);
+            fail("Should have thrown TimeoutError");
+        } catch (TimeoutError e) {
+            // The error from the last attempt is reported, not a deadline error.
+            assertFalse(e instanceof DeadlineExceededError);
+        }
+        verify(mMockRetryPolicy, times(1)).retry(any(VolleyError.class));
+    }
+
+    @Test
+    public void learnsResponseSizes() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        byte[] body = new byte[10000];
+        // No Content-Length, as for a chunked response.
+        HttpResponse fakeResponse =
+                new HttpResponse(
+                        200, Collections.<Header>emptyList(), -1, new ByteArrayInputStream(body));
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        NetworkResponse response = httpNetwork.performRequest(buildRequest());
+        assertEquals(body.length, response.data.length);
+
+        List<AdaptiveBufferSizer.Stats> stats = httpNetwork.getBufferSizer().getStats();
+        assertEquals(1, stats.size());
+        assertEquals("foo", stats.get(0).key);
+        assertEquals(body.length, stats.get(0).averageBytes);
+        // ByteArrayInputStream fills every read, so the chunk size should have grown, up to the
+        // largest buffer the default pool keeps.
+        assertEquals(4096, stats.get(0).chunkSize);
+    }
+
+    @Test
+    public void errorResponseIsNotPooled() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        InputStream responseStream =
+                new ByteArrayInputStream("error".getBytes(StandardCharsets.UTF_8));
+        HttpResponse fakeResponse =
+                new HttpResponse(404, Collections.<Header>emptyList(), 5, responseStream);
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        Request<String> request = buildRequest();
+        request.setShouldUsePooledResponseBuffer(true);
+        try {
+            httpNetwork.performRequest(request);
+            fail("Should have thrown ClientError");
+        } catch (ClientError e) {
+            assertFalse(e.networkResponse.isPooled());
+            assertEquals(5, e.networkResponse.data.length);
+        }
+    }
+
+    @Test
+    public void reportsProgress() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        byte[] body = new byte[10000];
+        HttpResponse fakeResponse =
+                new HttpResponse(
+                        200,
+                        Collections.<Header>emptyList(),
+                        body.length,
+                        new ByteArrayInputStream(body));
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        Request<String> request = buildRequest();
+        final List<long[]> progress = new ArrayList<>();
+        request.setProgressListener(
+                new Response.ProgressListener() {
+                    @Override
+                    public void onProgress(long bytesRead, long totalBytes) {
+                        progress.add(new long[] {bytesRead, totalBytes});
+                    }
+                },
+                4000);
+
+        httpNetwork.performRequest(request);
+
+        assertFalse(progress.isEmpty());
+        long previous = 0;
+        for (int i = 0; i < progress.size() - 1; i++) {
+            assertTrue(progress.get(i)[0] - previous >= 4000);
+            assertEquals(body.length, progress.get(i)[1]);
+            previous = progress.get(i)[0];
+        }
+        long[] last = progress.get(progress.size() - 1);
+        assertEquals(body.length, last[0]);
+        assertEquals(body.length, last[1]);
+    }
+
+    @Test
+    public void reportsPartialBody() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        byte[] body = new byte[10000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        HttpResponse fakeResponse =
+                new HttpResponse(
+                        200,
+                        Collections.<Header>emptyList(),
+                        body.length,
+                        new ByteArrayInputStream(body));
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        Request<String> request = buildRequest();
+        final List<byte[]> partials = new ArrayList<>();
+        request.setPartialBodyListener(
+                new Response.PartialBodyListener() {
+                    @Override
+                    public void onPartialBody(byte[] data, int length) {
+                        byte[] copy = new byte[length];
+                        System.arraycopy(data, 0, copy, 0, length);
+                        partials.add(copy);
+                    }
+                },
+                6000,
+                1000);
+
+        httpNetwork.performRequest(request);
+
+        assertEquals(2, partials.size());
+        assertTrue(partials.get(0).length >= 1000);
+        assertTrue(partials.get(0).length < 6000);
+        assertTrue(partials.get(1).length >= 6000);
+        for (byte[] partial : partials) {
+            for (int i = 0; i < partial.length; i++) {
+                assertEquals(body[i], partial[i]);
+            }
+        }
+    }
+
+    @Test
+    public void throttlesByPriority() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        byte[] body = new byte[3000];
+        HttpResponse fakeResponse =
+                new HttpResponse(
+                        200,
+                        Collections.<Header>emptyList(),
+                        body.length,
+                        new ByteArrayInputStream(body));
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        httpNetwork.setPriorityBandwidthLimit(
+                Request.Priority.NORMAL,
+                new TokenBucket(/* bytesPerSecond= */ 10000, /* burstBytes= */ 1000));
+        long startNs = System.nanoTime();
+
+        httpNetwork.performRequest(buildRequest());
+
+        // 2000 bytes beyond the burst at 10000 bytes per second.
+        assertTrue(System.nanoTime() - startNs >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void interruptWhileThrottledFailsRequest() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        byte[] body = new byte[3000];
+        HttpResponse fakeResponse =
+                new HttpResponse(
+                        200,
+                        Collections.<Header>emptyList(),
+                        body.length,
+                        new ByteArrayInputStream(body));
+        mockHttpStack.setResponseToReturn(fakeResponse);
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        httpNetwork.setPriorityBandwidthLimit(
+                Request.Priority.NORMAL,
+                new TokenBucket(/* bytesPerSecond= */ 1, /* burstBytes= */ 1));
+        Thread.currentThread().interrupt();
+
+        try {
+            httpNetwork.performRequest(buildRequest());
+            fail();
+        } catch (NetworkError e) {
+            // expected
+        }
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void stackTimeoutIsNotTreatedAsInterrupt() throws Exception {
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        mockHttpStack.setExceptionToThrow(new InterruptedIOException("timeout"));
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+
+        try {
+            httpNetwork.performRequest(buildRequest());
+            fail();
+        } catch (NoConnectionError e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void resumesInterruptedDownload() throws Exception {
+        DiskBasedCache store = new DiskBasedCache(temporaryFolder.getRoot());
+        store.initialize();
+        final byte[] body = "0123456789".getBytes(StandardCharsets.UTF_8);
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        InputStream failingStream =
+                new InputStream() {
+                    private int mPosition;
+
+                    @Override
+                    public int read() throws IOException {
+                        if (mPosition == 4) {
+                            throw new IOException("Connection reset");
+                        }
+                        return body[mPosition++];
+                    }
+                };
+        mockHttpStack.setResponseToReturn(
+                new HttpResponse(
+                        200,
+                        Collections.singletonList(new Header("ETag", "\"v1\"")),
+                        body.length,
+                        failingStream));
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        httpNetwork.setPartialResponseStore(store);
+        Request<String> request = buildRequest();
+        request.setShouldResumeDownload(true);
+        request.setRetryPolicy(mMockRetryPolicy);
+        doThrow(new VolleyError()).when(mMockRetryPolicy).retry(any(VolleyError.class));
+        try {
+            httpNetwork.performRequest(request);
+            fail("Should have thrown VolleyError");
+        } catch (VolleyError e) {
+            // expected
+        }
+        assertEquals(4, store.getPartial(request.getCacheKey()).length);
+        assertNull(store.get(request.getCacheKey()));
+
+        List<Header> rangeHeaders = new ArrayList<>();
+        rangeHeaders.add(new Header("ETag", "\"v1\""));
+        rangeHeaders.add(new Header("Content-Range", "bytes 4-9/10"));
+        mockHttpStack.setResponseToReturn(
+                new HttpResponse(
+                        HttpURLConnection.HTTP_PARTIAL,
+                        rangeHeaders,
+                        6,
+                        new ByteArrayInputStream(body, 4, 6)));
+        NetworkResponse response = httpNetwork.performRequest(request);
+
+        assertEquals("bytes=4-", mockHttpStack.getLastHeaders().get("Range"));
+        assertEquals("\"v1\"", mockHttpStack.getLastHeaders().get("If-Range"));
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode);
+        assertEquals("0123456789", new String(response.data, StandardCharsets.UTF_8));
+        assertNull(response.headers.get("Content-Range"));
+        assertNull(store.getPartial(request.getCacheKey()));
+    }
+
+    @Test
+    public void resumesBodyLargerThanCache() throws Exception {
+        DiskBasedCache store =
+                new DiskBasedCache(temporaryFolder.getRoot(), /* maxCacheSizeInBytes= */ 64);
+        store.initialize();
+        final byte[] body = new byte[1000];
+        new Random(42).nextBytes(body);
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        mockHttpStack.setResponseToReturn(
+                new HttpResponse(
+                        200,
+                        Collections.singletonList(new Header("ETag", "\"v1\"")),
+                        body.length,
+                        new InputStream() {
+                            private int mPosition;
+
+                            @Override
+                            public int read() throws IOException {
+                                if (mPosition == 600) {
+                                    throw new IOException("Connection reset");
+                                }
+                                return body[mPosition++] & 0xff;
+                            }
+                        }));
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        httpNetwork.setPartialResponseStore(store);
+        Request<String> request = buildRequest();
+        request.setShouldResumeDownload(true);
+        request.setRetryPolicy(mMockRetryPolicy);
+        doThrow(new VolleyError()).when(mMockRetryPolicy).retry(any(VolleyError.class));
+        try {
+            httpNetwork.performRequest(request);
+            fail("Should have thrown VolleyError");
+        } catch (VolleyError e) {
+            // expected
+        }
+        assertEquals(600, store.getPartial(request.getCacheKey()).length);
+
+        List<Header> rangeHeaders = new ArrayList<>();
+        rangeHeaders.add(new Header("ETag", "\"v1\""));
+        rangeHeaders.add(new Header("Content-Range", "bytes 600-999/1000"));
+        mockHttpStack.setResponseToReturn(
+                new HttpResponse(
+                        HttpURLConnection.HTTP_PARTIAL,
+                        rangeHeaders,
+                        400,
+                        new ByteArrayInputStream(body, 600, 400)));
+        NetworkResponse response = httpNetwork.performRequest(request);
+
+        assertEquals("bytes=600-", mockHttpStack.getLastHeaders().get("Range"));
+        assertArrayEquals(body, response.data);
+        assertNull(store.getPartial(request.getCacheKey()));
+    }
+
+    @Test
+    public void rejectedRangeFetchesWholeBody() throws Exception {
+        DiskBasedCache store = new DiskBasedCache(temporaryFolder.getRoot());
+        store.initialize();
+        Request<String> request = buildRequest();
+        request.setShouldResumeDownload(true);
+        OutputStream partialOut = store.startPartial(request.getCacheKey(), "\"v1\"");
+        partialOut.write("0123".getBytes(StandardCharsets.UTF_8));
+        partialOut.close();
+        final byte[] body = "abcdef".getBytes(StandardCharsets.UTF_8);
+        final List<String> ranges = new ArrayList<>();
+        BaseHttpStack stack =
+                new BaseHttpStack() {
+                    @Override
+                    public HttpResponse executeRequest(
+                            Request<?> request, Map<String, String> additionalHeaders) {
+                        String range = additionalHeaders.get("Range");
+                        ranges.add(range);
+                        if (range != null) {
+                            return new HttpResponse(416, Collections.<Header>emptyList());
+                        }
+                        return new HttpResponse(
+                                200,
+                                Collections.<Header>emptyList(),
+                                body.length,
+                                new ByteArrayInputStream(body));
+                    }
+                };
+        BasicNetwork httpNetwork = new BasicNetwork(stack);
+        httpNetwork.setPartialResponseStore(store);
+
+        NetworkResponse response = httpNetwork.performRequest(request);
+
+        assertEquals(Arrays.asList("bytes=4-", null), ranges);
+        assertEquals("abcdef", new String(response.data, StandardCharsets.UTF_8));
+        assertNull(store.getPartial(request.getCacheKey()));
+    }
+
+    @Test
+    public void serverErrorKeepsPartialBody() throws Exception {
+        DiskBasedCache store = new DiskBasedCache(temporaryFolder.getRoot());
+        store.initialize();
+        Request<String> request = buildRequest();
+        request.setShouldResumeDownload(true);
+        OutputStream partialOut = store.startPartial(request.getCacheKey(), "\"v1\"");
+        partialOut.write("0123".getBytes(StandardCharsets.UTF_8));
+        partialOut.close();
+        MockHttpStack mockHttpStack = new MockHttpStack();
+        mockHttpStack.setResponseToReturn(
+                new HttpResponse(503, Collections.<Header>emptyList(), 0, null));
+        BasicNetwork httpNetwork = new BasicNetwork(mockHttpStack);
+        httpNetwork.setPartialResponseStore(store);
+
+        try {
+            httpNetwork.performRequest(request);
+            fail("Should have thrown ServerError");
+        } catch (ServerError e) {
+            // expected
+        }
+
+        assertEquals(4, store.getPartial(request.getCacheKey()).length);
+    }
+
     private static Request<String> buildRequest() {
         return new Request<String>(Request.Method.GET, "http://foo", null) {
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BitmapPoolTest {
+
+    @Test
+    public void getReturnsMatchingBitmapOnly() {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        Bitmap bitmap = Bitmap.createBitmap(10, 20, Bitmap.Config.ARGB_8888);
+        pool.put(bitmap);
+
+        assertNull(pool.get(20, 10, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(10, 20, Bitmap.Config.RGB_565));
+        assertSame(bitmap, pool.get(10, 20, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(10, 20, Bitmap.Config.ARGB_8888));
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(3, pool.getMissCount());
+        assertEquals(0, pool.getCurrentBytes());
+    }
+
+    @Test
+    public void oldestBitmapsAreDroppedOverBudget() {
+        Bitmap first = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        Bitmap third = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        BitmapPool pool = new BitmapPool(2 * BitmapPool.sizeOf(first));
+
+        pool.put(first);
+        pool.put(second);
+        pool.put(third);
+
+        assertEquals(2 * BitmapPool.sizeOf(first), pool.getCurrentBytes());
+        assertSame(third, pool.get(10, 10, Bitmap.Config.ARGB_8888));
+        assertSame(second, pool.get(10, 10, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void recycledBitmapsAreIgnored() {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        bitmap.recycle();
+
+        pool.put(bitmap);
+
+        assertEquals(0, pool.getCurrentBytes());
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.volley.ServerError;
+import com.android.volley.mock.MockRequest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompletableRequestFutureTest {
+
+    private static final CompletableRequestFuture.Function<String, Integer> LENGTH =
+            new CompletableRequestFuture.Function<String, Integer>() {
+                @Override
+                public Integer apply(String value) {
+                    return value.length();
+                }
+            };
+
+    @Test
+    public void thenApply_transformsResult() throws Exception {
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        CompletableRequestFuture<Integer> length = future.thenApply(LENGTH);
+        RecordingCallback<Integer> callback = new RecordingCallback<>();
+        length.addCallback(callback);
+        assertFalse(length.isDone());
+
+        future.onResponse("hello");
+
+        assertEquals(5, (int) length.get());
+        assertEquals(Integer.valueOf(5), callback.result);
+    }
+
+    @Test
+    public void thenApply_passesOnFailure() throws Exception {
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        CompletableRequestFuture<Integer> length = future.thenApply(LENGTH);
+        ServerError error = new ServerError();
+
+        future.onErrorResponse(error);
+
+        try {
+            length.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void thenApply_functionThrows() throws Exception {
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        final IllegalStateException thrown = new IllegalStateException();
+        CompletableRequestFuture<Integer> failing =
+                future.thenApply(
+                        new CompletableRequestFuture.Function<String, Integer>() {
+                            @Override
+                            public Integer apply(String value) {
+                                throw thrown;
+                            }
+                        });
+        RecordingCallback<Integer> callback = new RecordingCallback<>();
+
+        future.onResponse("hello");
+        failing.addCallback(callback);
+
+        assertSame(thrown, callback.error);
+    }
+
+    @Test
+    public void cancel_propagatesToRequest() throws Exception {
+        MockRequest request = new MockRequest();
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        future.setRequest(request);
+        CompletableRequestFuture<Integer> length = future.thenApply(LENGTH);
+        RecordingCallback<Integer> callback = new RecordingCallback<>();
+        length.addCallback(callback);
+
+        assertTrue(future.cancel(false));
+
+        assertTrue(request.cancel_called);
+        assertTrue(length.isCancelled());
+        assertTrue(callback.error instanceof CancellationException);
+        assertFalse(future.cancel(false));
+    }
+
+    @Test
+    public void cancelledRequest_cancelsFuture() throws Exception {
+        MockRequest request = new MockRequest();
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        future.setRequest(request);
+        RecordingCallback<String> callback = new RecordingCallback<>();
+        future.addCallback(callback);
+
+        request.cancel();
+
+        assertTrue(future.isCancelled());
+        assertTrue(callback.error instanceof CancellationException);
+    }
+
+    @Test
+    public void cancelledBeforeSetRequest_cancelsFuture() throws Exception {
+        MockRequest request = new MockRequest();
+        request.cancel();
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        RecordingCallback<String> callback = new RecordingCallback<>();
+        future.addCallback(callback);
+
+        future.setRequest(request);
+
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertTrue(callback.error instanceof CancellationException);
+    }
+
+    @Test
+    public void thenApply_cancelPropagatesToSoleSource() throws Exception {
+        MockRequest request = new MockRequest();
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        future.setRequest(request);
+        CompletableRequestFuture<Integer> length = future.thenApply(LENGTH);
+
+        assertTrue(length.cancel(false));
+
+        assertTrue(future.isCancelled());
+        assertTrue(request.cancel_called);
+    }
+
+    @Test
+    public void thenApply_cancelKeepsSourceWithCallback() throws Exception {
+        MockRequest request = new MockRequest();
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        future.setRequest(request);
+        future.addCallback(new RecordingCallback<String>());
+        CompletableRequestFuture<Integer> length = future.thenApply(LENGTH);
+
+        assertTrue(length.cancel(false));
+
+        assertFalse(future.isCancelled());
+        assertFalse(request.cancel_called);
+    }
+
+    @Test
+    public void thenApply_cancelKeepsSource() throws Exception {
+        MockRequest request = new MockRequest();
+        CompletableRequestFuture<String> future = CompletableRequestFuture.newFuture();
+        future.setRequest(request);
+        CompletableRequestFuture<Integer> length = future.thenApply(LENGTH);
+        CompletableRequestFuture<Integer> other = future.thenApply(LENGTH);
+
+        assertTrue(length.cancel(false));
+        future.onResponse("hello");
+
+        assertFalse(request.cancel_called);
+        assertFalse(future.isCancelled());
+        assertEquals(5, (int) other.get());
+    }
+
+    @Test
+    public void allOf_collectsResultsInOrder() throws Exception {
+        CompletableRequestFuture<String> first = CompletableRequestFuture.newFuture();
+        CompletableRequestFuture<String> second = CompletableRequestFuture.newFuture();
+        CompletableRequestFuture<List<String>> all =
+                CompletableRequestFuture.allOf(Arrays.asList(first, second));
+
+        second.onResponse("b");
+        assertFalse(all.isDone());
+        first.onResponse("a");
+
+        assertEquals(Arrays.asList("a", "b"), all.get());
+    }
+
+    @Test
+    public void allOf_failureKeepsOthers() throws Exception {
+        MockRequest request = new MockRequest();
+        CompletableRequestFuture<String> first = CompletableRequestFuture.newFuture();
+        CompletableRequestFuture<String> second = CompletableRequestFuture.newFuture();
+        second.setRequest(request);
+        CompletableRequestFuture<List<String>> all =
+                CompletableRequestFuture.allOf(Arrays.asList(first, second));
+
+        first.onErrorResponse(new ServerError());
+
+        assertTrue(all.isDone());
+        assertFalse(all.isCancelled());
+        assertFalse(second.isDone());
+        assertFalse(request.cancel_called);
+    }
+
+    @Test
+    public void allOf_cancelPropagatesToSources() throws Exception {
+        MockRequest firstRequest = new MockRequest();
+        MockRequest secondRequest = new MockRequest();
+        CompletableRequestFuture<String> first = CompletableRequestFuture.newFuture();
+        CompletableRequestFuture<String> second = CompletableRequestFuture.newFuture();
+        first.setRequest(firstRequest);
+        second.setRequest(secondRequest);
+        second.thenApply(LENGTH);
+        CompletableRequestFuture<List<String>> all =
+                CompletableRequestFuture.allOf(Arrays.asList(first, second));
+
+        assertTrue(all.cancel(false));
+
+        assertTrue(firstRequest.cancel_called);
+        // The second future still has another consumer.
+        assertFalse(secondRequest.cancel_called);
+    }
+
+    @Test
+    public void allOf_empty() throws Exception {
+        List<CompletableRequestFuture<String>> none = Arrays.asList();
+        assertTrue(CompletableRequestFuture.allOf(none).get().isEmpty());
+    }
+
+    private static class RecordingCallback<T> implements CompletableRequestFuture.Callback<T> {
+        T result;
+        Throwable error;
+
+        @Override
+        public void onSuccess(T result) {
+            this.result = result;
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            this.error = error;
+        }
+    }
+}
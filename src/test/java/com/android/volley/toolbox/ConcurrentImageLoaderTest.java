@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView.ScaleType;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConcurrentImageLoaderTest {
+    private static final Executor DIRECT = ExecutorDelivery.DIRECT_EXECUTOR;
+
+    private RequestQueue mRequestQueue;
+    private ImageLoader.ImageCache mImageCache;
+    private ConcurrentImageLoader mImageLoader;
+
+    @Before
+    public void setUp() {
+        mRequestQueue = mock(RequestQueue.class);
+        mImageCache = mock(ImageLoader.ImageCache.class);
+        mImageLoader = new ConcurrentImageLoader(mRequestQueue, mImageCache, DIRECT);
+    }
+
+    @Test
+    public void cacheHitIsDeliveredOnExecutor() throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        when(mImageCache.getBitmap(Mockito.anyString())).thenReturn(bitmap);
+        RecordingExecutor executor = new RecordingExecutor();
+        Response.Listener<Bitmap> listener = newListener();
+
+        mImageLoader.get("http://foo", 0, 0, ScaleType.CENTER_INSIDE, executor, listener, null);
+
+        verify(listener, never()).onResponse(bitmap);
+        executor.runAll();
+        verify(listener).onResponse(bitmap);
+        verify(mRequestQueue, never()).add(Mockito.<Request<?>>any());
+    }
+
+    @Test
+    public void concurrentLoadsShareOneRequest() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        final Response.Listener<Bitmap> listener =
+                new Response.Listener<Bitmap>() {
+                    @Override
+                    public void onResponse(Bitmap response) {
+                        delivered.incrementAndGet();
+                    }
+                };
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            mImageLoader.get("http://foo", listener, null);
+                        }
+                    };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+
+        ImageRequest request = captureRequest();
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        request.deliverResponse(bitmap);
+
+        assertEquals(8, delivered.get());
+        verify(mImageCache).putBitmap(Mockito.anyString(), Mockito.same(bitmap));
+        assertSame(DIRECT, request.getDeliveryExecutor());
+    }
+
+    @Test
+    public void loadsOnOneExecutorAreDeliveredTogether() throws Exception {
+        RecordingExecutor executor = new RecordingExecutor();
+        Response.Listener<Bitmap> first = newListener();
+        Response.Listener<Bitmap> second = newListener();
+        Response.ErrorListener errorListener = mock(Response.ErrorListener.class);
+        mImageLoader.get("http://foo", 0, 0, ScaleType.CENTER_INSIDE, executor, first, null);
+        mImageLoader.get(
+                "http://foo", 0, 0, ScaleType.CENTER_INSIDE, executor, second, errorListener);
+
+        VolleyError error = new VolleyError();
+        captureRequest().deliverError(error);
+
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+        verify(errorListener).onErrorResponse(error);
+    }
+
+    @Test
+    public void cancelLastLoadCancelsRequest() throws Exception {
+        Response.Listener<Bitmap> first = newListener();
+        Response.Listener<Bitmap> second = newListener();
+        ConcurrentImageLoader.Handle firstHandle = mImageLoader.get("http://foo", first, null);
+        ConcurrentImageLoader.Handle secondHandle = mImageLoader.get("http://foo", second, null);
+        ImageRequest request = captureRequest();
+
+        firstHandle.cancel();
+        assertFalse(request.isCanceled());
+        secondHandle.cancel();
+        assertTrue(request.isCanceled());
+
+        // A new load starts a new request.
+        mImageLoader.get("http://foo", newListener(), null);
+        verify(mRequestQueue, times(2)).add(Mockito.<Request<?>>any());
+    }
+
+    private ImageRequest captureRequest() {
+        ArgumentCaptor<Request<?>> captor = requestCaptor();
+        verify(mRequestQueue).add(captor.capture());
+        return (ImageRequest) captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Request<?>> requestCaptor() {
+        return (ArgumentCaptor<Request<?>>)
+                (ArgumentCaptor<?>) ArgumentCaptor.forClass(Request.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response.Listener<Bitmap> newListener() {
+        return mock(Response.Listener.class);
+    }
+
+    private static class RecordingExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : mTasks) {
+                task.run();
+            }
+            mTasks.clear();
+        }
+    }
+}
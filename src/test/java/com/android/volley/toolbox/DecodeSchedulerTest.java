@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class DecodeSchedulerTest {
+
+    @Test
+    public void decodesWithinBudgetRunConcurrently() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(1000);
+
+        scheduler.acquire(400);
+        scheduler.acquire(600);
+
+        assertEquals(1000, scheduler.getInFlightBytes());
+        assertEquals(2, scheduler.getDecodeCount());
+        assertEquals(0, scheduler.getMaxWaitMs());
+    }
+
+    @Test
+    public void decodeOverBudgetWaitsForRelease() throws Exception {
+        final DecodeScheduler scheduler = new DecodeScheduler(1000);
+        scheduler.acquire(600);
+
+        Thread decoder =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            scheduler.acquire(600);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+        decoder.start();
+        decoder.join(100);
+        assertTrue(decoder.isAlive());
+        assertEquals(600, scheduler.getInFlightBytes());
+
+        SystemClock.sleep(250);
+        scheduler.release(600);
+        decoder.join(1000);
+        assertFalse(decoder.isAlive());
+        assertEquals(600, scheduler.getInFlightBytes());
+        assertEquals(2, scheduler.getDecodeCount());
+        assertEquals(250, scheduler.getMaxWaitMs());
+        assertEquals(125, scheduler.getAverageWaitMs());
+    }
+
+    @Test
+    public void oversizedDecodeRunsAlone() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(1000);
+
+        scheduler.acquire(5000);
+        assertEquals(5000, scheduler.getInFlightBytes());
+        scheduler.release(5000);
+
+        assertEquals(0, scheduler.getInFlightBytes());
+    }
+
+    @Test
+    public void bytesPerPixel() {
+        assertEquals(1, DecodeScheduler.bytesPerPixel(Bitmap.Config.ALPHA_8));
+        assertEquals(2, DecodeScheduler.bytesPerPixel(Bitmap.Config.RGB_565));
+        assertEquals(4, DecodeScheduler.bytesPerPixel(Bitmap.Config.ARGB_8888));
+    }
+}
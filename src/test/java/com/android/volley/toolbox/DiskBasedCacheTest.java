@@ -87,6 +87,57 @@ public class DiskBasedCacheTest {
         assertThat(cache.get("key"), is(nullValue()));
     }
 
+    @Test
+    public void testPartialIsNeverServed() throws IOException {
+        DiskBasedCache diskCache = (DiskBasedCache) cache;
+        OutputStream os = diskCache.startPartial("key", "etag");
+        os.write(new byte[] {1, 2, 3});
+        os.close();
+        os = diskCache.appendPartial("key");
+        os.write(4);
+        os.close();
+
+        PartialResponseStore.Partial partial = diskCache.getPartial("key");
+        assertThat(partial.validator, is("etag"));
+        assertThat(partial.length, is(4L));
+        InputStream is = diskCache.openPartial("key");
+        assertThat(is.read(), is(1));
+        is.close();
+        assertThat(cache.get("key"), is(nullValue()));
+
+        // A fresh instance must not mistake the partial body for an entry.
+        DiskBasedCache reloaded = new DiskBasedCache(temporaryFolder.getRoot(), MAX_SIZE);
+        reloaded.initialize();
+        assertThat(reloaded.get("key"), is(nullValue()));
+        assertThat(reloaded.getPartial("key").length, is(4L));
+
+        reloaded.removePartial("key");
+        assertThat(reloaded.getPartial("key"), is(nullValue()));
+    }
+
+    @Test
+    public void testPartialsHaveTheirOwnBudget() throws IOException {
+        DiskBasedCache diskCache = (DiskBasedCache) cache;
+        diskCache.setMaxPartialSizeInBytes(3 * MAX_SIZE);
+        OutputStream os = diskCache.startPartial("old", "etag");
+        os.write(new byte[2 * MAX_SIZE]);
+        os.close();
+
+        // Partials larger than the cache leave its entries alone.
+        Cache.Entry entry = randomData(MAX_SIZE / 2);
+        cache.put("entry", entry);
+        assertThat(diskCache.getPartial("old").length, is((long) 2 * MAX_SIZE));
+        assertThatEntriesAreEqual(cache.get("entry"), entry);
+
+        // Going over the partial budget prunes older partials, but never the one just written.
+        os = diskCache.startPartial("new", "etag");
+        os.write(new byte[4 * MAX_SIZE]);
+        os.close();
+        assertThat(diskCache.getPartial("old"), is(nullValue()));
+        assertThat(diskCache.getPartial("new").length, is((long) 4 * MAX_SIZE));
+        assertThatEntriesAreEqual(cache.get("entry"), entry);
+    }
+
     @Test
     public void testPutGetZeroBytes() {
         Cache.Entry entry = new Cache.Entry();
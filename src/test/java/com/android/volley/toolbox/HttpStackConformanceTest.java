@@ -10,6 +10,7 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 import com.android.volley.Request;
+import com.android.volley.RequestBody;
 import com.android.volley.RetryPolicy;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -153,6 +154,7 @@ public class HttpStackConformanceTest {
 
         when(mMockRequest.getMethod()).thenReturn(Request.Method.POST);
         when(mMockRequest.getBody()).thenReturn(new byte[0]);
+        when(mMockRequest.getRequestBody()).thenReturn(RequestBody.create(new byte[0]));
         when(mMockRequest.getBodyContentType()).thenReturn("BodyContentType");
 
         for (TestCase testCase : mTestCases) {
@@ -16,8 +16,10 @@
 
 package com.android.volley.toolbox;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -38,6 +40,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -195,6 +199,98 @@ public class HurlStackTest {
         verify(mMockConnection).setDoOutput(true);
     }
 
+    @Test
+    public void streamsBodyWithFixedLength() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(mMockConnection.getOutputStream()).thenReturn(out);
+        JsonObjectRequest request =
+                new JsonObjectRequest(
+                        Method.POST, "http://foo.com", new JSONObject("{\"a\":1}"), null, null);
+
+        HurlStack.setConnectionParametersForRequest(mMockConnection, request);
+        byte[] expected = request.getBody();
+        verify(mMockConnection).setFixedLengthStreamingMode(expected.length);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void leavesByteArrayBodyToBeBuffered() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(mMockConnection.getOutputStream()).thenReturn(out);
+        TestRequest.PostWithBody request = new TestRequest.PostWithBody();
+
+        HurlStack.setConnectionParametersForRequest(mMockConnection, request);
+        // Fixed-length mode would stop HttpURLConnection resending the body on a 401 or 307.
+        verify(mMockConnection, never()).setFixedLengthStreamingMode(anyInt());
+        assertArrayEquals(request.getBody(), out.toByteArray());
+    }
+
+    @Test
+    public void streamsCompressedBodyInChunks() throws Exception {
+        when(mMockConnection.getURL()).thenReturn(new URL("http://foo.com"));
+        TestRequest.PostWithBody request = new TestRequest.PostWithBody();
+
+        HurlStack.setConnectionParametersForRequest(
+                mMockConnection,
+                request,
+                new RequestBodyCompressor(/* minSizeBytes= */ 1, /* enabledByDefault= */ true));
+        verify(mMockConnection, never()).setFixedLengthStreamingMode(anyInt());
+        verify(mMockConnection).setChunkedStreamingMode(0);
+    }
+
+    @Test
+    public void compressesBodyAboveThreshold() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(mMockConnection.getOutputStream()).thenReturn(out);
+        when(mMockConnection.getURL()).thenReturn(new URL("http://foo.com"));
+        TestRequest.PostWithBody request = new TestRequest.PostWithBody();
+
+        HurlStack.setConnectionParametersForRequest(
+                mMockConnection,
+                request,
+                new RequestBodyCompressor(/* minSizeBytes= */ 1, /* enabledByDefault= */ true));
+        verify(mMockConnection).setRequestProperty("Content-Encoding", "gzip");
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            decompressed.write(buffer, 0, count);
+        }
+        assertArrayEquals(request.getBody(), decompressed.toByteArray());
+    }
+
+    @Test
+    public void doesNotCompressBodyBelowThreshold() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(mMockConnection.getOutputStream()).thenReturn(out);
+        when(mMockConnection.getURL()).thenReturn(new URL("http://foo.com"));
+        TestRequest.PostWithBody request = new TestRequest.PostWithBody();
+
+        HurlStack.setConnectionParametersForRequest(
+                mMockConnection,
+                request,
+                new RequestBodyCompressor(/* minSizeBytes= */ 1024, /* enabledByDefault= */ true));
+        verify(mMockConnection, never()).setRequestProperty("Content-Encoding", "gzip");
+        verify(mMockConnection, never()).setChunkedStreamingMode(anyInt());
+        assertArrayEquals(request.getBody(), out.toByteArray());
+    }
+
+    @Test
+    public void doesNotCompressBodyForUnsupportedHost() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(mMockConnection.getOutputStream()).thenReturn(out);
+        when(mMockConnection.getURL()).thenReturn(new URL("http://foo.com"));
+        TestRequest.PostWithBody request = new TestRequest.PostWithBody();
+        RequestBodyCompressor compressor =
+                new RequestBodyCompressor(/* minSizeBytes= */ 1, /* enabledByDefault= */ true);
+        compressor.setHostSupported("FOO.com", false);
+
+        HurlStack.setConnectionParametersForRequest(mMockConnection, request, compressor);
+        verify(mMockConnection, never()).setRequestProperty("Content-Encoding", "gzip");
+        assertArrayEquals(request.getBody(), out.toByteArray());
+    }
+
     @Test
     public void executeRequestClosesConnection_connectionError() throws Exception {
         when(mMockConnection.getResponseCode()).thenThrow(new SocketTimeoutException());
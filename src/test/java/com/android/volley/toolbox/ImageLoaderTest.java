@@ -16,11 +16,15 @@
 
 package com.android.volley.toolbox;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,12 +33,15 @@ import android.graphics.Bitmap;
 import android.widget.ImageView;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import java.util.Arrays;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
 
 @RunWith(RobolectricTestRunner.class)
 public class ImageLoaderTest {
@@ -65,6 +72,126 @@ public class ImageLoaderTest {
         verify(listener).onResponse(ic, true);
     }
 
+    @Test
+    public void evictedBitmapIsPooledOnceReleased() throws Exception {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        mImageLoader.setBitmapPool(pool);
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        mImageLoader.onGetImageSuccess(
+                ImageLoader.getCacheKey("http://foo", 0, 0, ImageView.ScaleType.CENTER_INSIDE),
+                bitmap);
+        when(mImageCache.getBitmap(anyString())).thenReturn(bitmap);
+        ImageLoader.ImageContainer first =
+                mImageLoader.get("http://foo", mock(ImageLoader.ImageListener.class));
+        ImageLoader.ImageContainer second =
+                mImageLoader.get("http://foo", mock(ImageLoader.ImageListener.class));
+
+        mImageLoader.onBitmapEvicted(bitmap);
+        first.cancelRequest();
+        assertEquals(0, pool.getCurrentBytes());
+        second.cancelRequest();
+
+        assertSame(bitmap, pool.get(10, 10, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void bitmapFromElsewhereIsNotPooled() throws Exception {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        mImageLoader.setBitmapPool(pool);
+        // E.g. decoded by a ConcurrentImageLoader sharing the cache.
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+
+        mImageLoader.onBitmapEvicted(bitmap);
+
+        assertEquals(0, pool.getCurrentBytes());
+    }
+
+    @Test
+    public void getJoinsAndBoostsPrefetch() throws Exception {
+        when(mImageCache.getBitmap(anyString())).thenReturn(null);
+        mImageLoader.prefetch(Arrays.asList("http://foo", "http://bar"), 100, 100);
+        ArgumentCaptor<Request<?>> captor = requestCaptor();
+        verify(mRequestQueue, times(2)).add(captor.capture());
+        ImageRequest prefetch = (ImageRequest) captor.getAllValues().get(0);
+        assertEquals(Request.Priority.LOW, prefetch.getPriority());
+
+        ImageLoader.ImageContainer container =
+                mImageLoader.get("http://foo", mock(ImageLoader.ImageListener.class), 100, 100);
+
+        // The prefetch is reused and moved ahead instead of making a second request.
+        verify(mRequestQueue, times(2)).add(Mockito.<Request<?>>any());
+        assertEquals(Request.Priority.HIGH, prefetch.getPriority());
+        verify(mRequestQueue).reprioritize(prefetch);
+
+        // Once nobody waits for it, it goes back to being a prefetch and is not cancelled.
+        container.cancelRequest();
+        assertEquals(Request.Priority.LOW, prefetch.getPriority());
+        assertFalse(prefetch.isCanceled());
+    }
+
+    @Test
+    public void getKeepsDefaultPriority() throws Exception {
+        when(mImageCache.getBitmap(anyString())).thenReturn(null);
+        mImageLoader.get("http://foo", mock(ImageLoader.ImageListener.class));
+        mImageLoader.get("http://foo", mock(ImageLoader.ImageListener.class));
+
+        ArgumentCaptor<Request<?>> captor = requestCaptor();
+        verify(mRequestQueue).add(captor.capture());
+        assertEquals(Request.Priority.LOW, captor.getValue().getPriority());
+        verify(mRequestQueue, never()).reprioritize(Mockito.<Request<?>>any());
+    }
+
+    @Test
+    public void prefetchSkipsCachedImages() throws Exception {
+        when(mImageCache.getBitmap(anyString()))
+                .thenReturn(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888));
+
+        mImageLoader.prefetch(Arrays.asList("http://foo"), 100, 100);
+
+        verify(mRequestQueue, never()).add(Mockito.<Request<?>>any());
+    }
+
+    @Test
+    public void batchedResponsesCarryOverToNextFrame() throws Exception {
+        when(mImageCache.getBitmap(anyString())).thenReturn(null);
+        mImageLoader.setBatchedResponseFrameBudget(0);
+        ImageLoader.ImageListener fooListener = mock(ImageLoader.ImageListener.class);
+        ImageLoader.ImageListener barListener = mock(ImageLoader.ImageListener.class);
+        mImageLoader.get("http://foo", fooListener);
+        mImageLoader.get("http://bar", barListener);
+        ArgumentCaptor<Request<?>> captor = requestCaptor();
+        verify(mRequestQueue, times(2)).add(captor.capture());
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+
+        ShadowLooper.pauseMainLooper();
+        ((ImageRequest) captor.getAllValues().get(0)).deliverResponse(bitmap);
+        ((ImageRequest) captor.getAllValues().get(1)).deliverResponse(bitmap);
+        verify(fooListener, never()).onResponse(any(ImageLoader.ImageContainer.class), eq(false));
+
+        // With no time to spare, one response is delivered per frame, oldest first.
+        ShadowLooper.runMainLooperOneTask();
+        verify(fooListener).onResponse(any(ImageLoader.ImageContainer.class), eq(false));
+        verify(barListener, never()).onResponse(any(ImageLoader.ImageContainer.class), eq(false));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(barListener).onResponse(any(ImageLoader.ImageContainer.class), eq(false));
+    }
+
+    @Test
+    public void cancelBeforeBatchDelivery() throws Exception {
+        when(mImageCache.getBitmap(anyString())).thenReturn(null);
+        ImageLoader.ImageListener listener = mock(ImageLoader.ImageListener.class);
+        ShadowLooper.pauseMainLooper();
+        ImageLoader.ImageContainer container = mImageLoader.get("http://foo", listener);
+
+        mImageLoader.onGetImageSuccess(
+                ImageLoader.getCacheKey("http://foo", 0, 0, ImageView.ScaleType.CENTER_INSIDE),
+                Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888));
+        container.cancelRequest();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(listener, never()).onResponse(any(ImageLoader.ImageContainer.class), eq(false));
+    }
+
     @Test
     public void getWithCacheMiss() throws Exception {
         when(mImageCache.getBitmap(anyString())).thenReturn(null);
@@ -118,4 +245,10 @@ public class ImageLoaderTest {
                 ImageLoader.ImageListener.class.getMethod(
                         "onResponse", ImageLoader.ImageContainer.class, boolean.class));
     }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Request<?>> requestCaptor() {
+        return (ArgumentCaptor<Request<?>>)
+                (ArgumentCaptor<?>) ArgumentCaptor.forClass(Request.class);
+    }
 }
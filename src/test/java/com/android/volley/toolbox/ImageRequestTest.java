@@ -17,19 +17,24 @@
 package com.android.volley.toolbox;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
 import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Response;
+import com.android.volley.mock.ShadowScalingBitmapFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -40,6 +45,81 @@ public class ImageRequestTest {
 
     @Test
     public void parseNetworkResponse_resizing() throws Exception {
+        verifyResizes();
+    }
+
+    @Test
+    @org.robolectric.annotation.Config(shadows = {ShadowScalingBitmapFactory.class})
+    public void parseNetworkResponse_resizingInDecoder() throws Exception {
+        verifyResizes();
+    }
+
+    @Test
+    @org.robolectric.annotation.Config(shadows = {ShadowScalingBitmapFactory.class})
+    public void parseNetworkResponse_peakDecodeBytes() throws Exception {
+        byte[] jpegBytes = "file:fake".getBytes(StandardCharsets.UTF_8);
+        ShadowBitmapFactory.provideWidthAndHeightHints("fake", 1024, 500);
+        NetworkResponse jpeg = new NetworkResponse(jpegBytes);
+
+        // Uniform scaling is done by the decoder, so only the final bitmap is allocated.
+        ImageRequest request =
+                new ImageRequest(
+                        "", null, 511, 249, ScaleType.CENTER_INSIDE, Config.RGB_565, null);
+        Bitmap bitmap = request.parseNetworkResponse(jpeg).result;
+        assertEquals(509, bitmap.getWidth());
+        assertEquals(249, bitmap.getHeight());
+        assertEquals(BitmapPool.sizeOf(bitmap), request.getPeakDecodeBytes());
+
+        // Changing the aspect ratio still needs an intermediate bitmap.
+        request = new ImageRequest("", null, 300, 300, ScaleType.FIT_XY, Config.RGB_565, null);
+        bitmap = request.parseNetworkResponse(jpeg).result;
+        assertEquals(300, bitmap.getWidth());
+        assertEquals(300, bitmap.getHeight());
+        assertTrue(request.getPeakDecodeBytes() > BitmapPool.sizeOf(bitmap));
+    }
+
+    @Test
+    public void parseNetworkResponse_cachesResizedImage() throws Exception {
+        byte[] jpegBytes = "file:fake".getBytes(StandardCharsets.UTF_8);
+        ShadowBitmapFactory.provideWidthAndHeightHints("fake", 1024, 500);
+        NetworkResponse jpeg = new NetworkResponse(jpegBytes);
+        ImageRequest request =
+                new ImageRequest(
+                        "http://foo",
+                        null,
+                        512,
+                        250,
+                        ScaleType.CENTER_INSIDE,
+                        Config.RGB_565,
+                        null);
+        request.setResizedCacheKey("#W512#H250#S7http://foo");
+
+        Response<Bitmap> response = request.parseNetworkResponse(jpeg);
+
+        assertEquals("#W512#H250#S7http://foo", request.getCacheKey());
+        assertFalse(Arrays.equals(jpegBytes, response.cacheEntry.data));
+        Bitmap thumbnail =
+                BitmapFactory.decodeByteArray(
+                        response.cacheEntry.data, 0, response.cacheEntry.data.length);
+        assertNotNull(thumbnail);
+    }
+
+    @Test
+    public void parseNetworkResponse_cachesOriginalWithoutResize() throws Exception {
+        byte[] jpegBytes = "file:fake".getBytes(StandardCharsets.UTF_8);
+        ShadowBitmapFactory.provideWidthAndHeightHints("fake", 1024, 500);
+        ImageRequest request =
+                new ImageRequest(
+                        "http://foo", null, 0, 0, ScaleType.CENTER_INSIDE, Config.RGB_565, null);
+        request.setResizedCacheKey("#W0#H0#S7http://foo");
+
+        Response<Bitmap> response = request.parseNetworkResponse(new NetworkResponse(jpegBytes));
+
+        assertEquals("http://foo", request.getCacheKey());
+        assertSame(jpegBytes, response.cacheEntry.data);
+    }
+
+    private void verifyResizes() {
         // This is a horrible hack but Robolectric doesn't have a way to provide
         // width and height hints for decodeByteArray. It works because the byte array
         // "file:fake" is ASCII encodable and thus the name in Robolectric's fake
@@ -16,9 +16,16 @@
 
 package com.android.volley.toolbox;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import com.android.volley.Request;
+import com.android.volley.RequestBody;
 import com.android.volley.Response;
+import java.io.ByteArrayOutputStream;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
@@ -70,4 +77,42 @@ public class JsonRequestTest {
                         Response.Listener.class,
                         Response.ErrorListener.class));
     }
+
+    @Test
+    public void requestBodyMatchesBody() throws Exception {
+        // ASCII, two-byte, three-byte and four-byte (surrogate pair) characters.
+        String json = "{\"text\":\"a\u00e9\u4e2d\ud83d\ude00\"}";
+        JsonObjectRequest request =
+                new JsonObjectRequest(
+                        Request.Method.POST, "url", new JSONObject(json), null, null);
+        RequestBody body = request.getRequestBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertArrayEquals(request.getBody(), out.toByteArray());
+        assertEquals(out.size(), body.contentLength());
+        assertTrue(body.isStreaming());
+    }
+
+    @Test
+    public void requestBodyHonorsOverriddenBody() throws Exception {
+        final byte[] overridden = new byte[] {1, 2, 3};
+        JsonObjectRequest request =
+                new JsonObjectRequest(Request.Method.POST, "url", new JSONObject(), null, null) {
+                    @Override
+                    public byte[] getBody() {
+                        return overridden;
+                    }
+                };
+        RequestBody body = request.getRequestBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertArrayEquals(overridden, out.toByteArray());
+        assertFalse(body.isStreaming());
+    }
+
+    @Test
+    public void utf8Length() throws Exception {
+        String s = "a\u00e9\u4e2d\ud83d\ude00\ud83d";
+        assertEquals(s.getBytes("UTF-8").length, JsonRequest.utf8Length(s));
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+public class LruBitmapCacheTest {
+
+    private static final int BITMAP_BYTES = 10 * 10 * 4;
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize() {
+        LruBitmapCache cache = new LruBitmapCache(2 * BITMAP_BYTES, /* softReferences= */ false);
+        LruBitmapCache.EvictionListener listener = mock(LruBitmapCache.EvictionListener.class);
+        cache.setEvictionListener(listener);
+        Bitmap a = newBitmap();
+        Bitmap b = newBitmap();
+        Bitmap c = newBitmap();
+
+        cache.putBitmap("a", a);
+        cache.putBitmap("b", b);
+        cache.getBitmap("a");
+        cache.putBitmap("c", c);
+
+        assertSame(a, cache.getBitmap("a"));
+        assertNull(cache.getBitmap("b"));
+        assertSame(c, cache.getBitmap("c"));
+        assertEquals(2 * BITMAP_BYTES, cache.getCurrentBytes());
+        verify(listener).onBitmapEvicted("b", b);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void replacedBitmapIsEvicted() {
+        LruBitmapCache cache = new LruBitmapCache(2 * BITMAP_BYTES, /* softReferences= */ false);
+        LruBitmapCache.EvictionListener listener = mock(LruBitmapCache.EvictionListener.class);
+        cache.setEvictionListener(listener);
+        Bitmap a = newBitmap();
+
+        cache.putBitmap("a", a);
+        cache.putBitmap("a", newBitmap());
+
+        assertEquals(BITMAP_BYTES, cache.getCurrentBytes());
+        verify(listener).onBitmapEvicted("a", a);
+    }
+
+    @Test
+    public void evictionOffMainThreadIsPostedToIt() throws Exception {
+        final LruBitmapCache cache = new LruBitmapCache(BITMAP_BYTES, /* softReferences= */ false);
+        LruBitmapCache.EvictionListener listener = mock(LruBitmapCache.EvictionListener.class);
+        cache.setEvictionListener(listener);
+        Bitmap a = newBitmap();
+        cache.putBitmap("a", a);
+
+        Thread thread =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        cache.putBitmap("b", newBitmap());
+                    }
+                };
+        thread.start();
+        thread.join();
+        verify(listener, never()).onBitmapEvicted("a", a);
+
+        ShadowLooper.runUiThreadTasks();
+        verify(listener).onBitmapEvicted("a", a);
+    }
+
+    @Test
+    public void softReferencesGiveSecondChance() {
+        LruBitmapCache cache = new LruBitmapCache(BITMAP_BYTES, /* softReferences= */ true);
+        LruBitmapCache.EvictionListener listener = mock(LruBitmapCache.EvictionListener.class);
+        cache.setEvictionListener(listener);
+        Bitmap a = newBitmap();
+        Bitmap b = newBitmap();
+
+        cache.putBitmap("a", a);
+        cache.putBitmap("b", b);
+
+        // "a" comes back from its soft reference and pushes "b" out in turn.
+        assertSame(a, cache.getBitmap("a"));
+        assertSame(b, cache.getBitmap("b"));
+        assertEquals(2, cache.getSoftHitCount());
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void trimMemory() {
+        LruBitmapCache cache = new LruBitmapCache(4 * BITMAP_BYTES, /* softReferences= */ true);
+        for (int i = 0; i < 4; i++) {
+            cache.putBitmap("key" + i, newBitmap());
+        }
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(2 * BITMAP_BYTES, cache.getCurrentBytes());
+        assertNull(cache.getBitmap("key0"));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, cache.getCurrentBytes());
+        assertNull(cache.getBitmap("key3"));
+    }
+
+    private static Bitmap newBitmap() {
+        return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+    }
+}
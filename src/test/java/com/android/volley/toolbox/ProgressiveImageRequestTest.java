@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.widget.ImageView.ScaleType;
+import com.android.volley.Network;
+import com.android.volley.NetworkDispatcher;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.mock.ShadowScalingBitmapFactory;
+import com.android.volley.utils.ImmediateResponseDelivery;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+@RunWith(RobolectricTestRunner.class)
+@org.robolectric.annotation.Config(shadows = {ShadowScalingBitmapFactory.class})
+public class ProgressiveImageRequestTest {
+
+    private static final byte[] JPEG_BYTES = "file:fake".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void deliversPreviewsBeforeFinalImage() throws Exception {
+        ShadowBitmapFactory.provideWidthAndHeightHints("fake", 1024, 512);
+        final List<Bitmap> bitmaps = new ArrayList<>();
+        final List<Boolean> intermediate = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final ProgressiveImageRequest request =
+                new ProgressiveImageRequest(
+                        "http://foo",
+                        new Response.Listener<Bitmap>() {
+                            @Override
+                            public void onResponse(Bitmap response) {
+                                bitmaps.add(response);
+                            }
+                        },
+                        0,
+                        0,
+                        ScaleType.CENTER_INSIDE,
+                        Config.ARGB_8888,
+                        null,
+                        4);
+        request.setShouldCache(false);
+
+        Network network = mock(Network.class);
+        when(network.performRequest(any(Request.class)))
+                .thenAnswer(
+                        new Answer<NetworkResponse>() {
+                            @Override
+                            public NetworkResponse answer(InvocationOnMock invocation) {
+                                request.getPartialBodyListener()
+                                        .onPartialBody(JPEG_BYTES, JPEG_BYTES.length);
+                                return new NetworkResponse(JPEG_BYTES);
+                            }
+                        });
+        NetworkDispatcher dispatcher =
+                newDispatcher(
+                        network,
+                        new ImmediateResponseDelivery() {
+                            @Override
+                            public void postResponse(
+                                    Request<?> request, Response<?> response, Runnable runnable) {
+                                intermediate.add(response.intermediate);
+                                super.postResponse(request, response, runnable);
+                                if (!response.intermediate) {
+                                    done.countDown();
+                                }
+                            }
+                        },
+                        request);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        dispatcher.quit();
+
+        // A preview at a quarter of the size, then the image itself.
+        assertEquals(Arrays.asList(true, false), intermediate);
+        assertEquals(2, bitmaps.size());
+        assertEquals(256, bitmaps.get(0).getWidth());
+        assertEquals(128, bitmaps.get(0).getHeight());
+        assertEquals(1024, bitmaps.get(1).getWidth());
+        assertEquals(512, bitmaps.get(1).getHeight());
+    }
+
+    private static NetworkDispatcher newDispatcher(
+            Network network, ImmediateResponseDelivery delivery, Request<?> request) {
+        BlockingQueue<Request<?>> queue = new LinkedBlockingQueue<>();
+        queue.add(request);
+        NetworkDispatcher dispatcher =
+                new NetworkDispatcher(queue, network, new NoCache(), delivery);
+        dispatcher.start();
+        return dispatcher;
+    }
+}
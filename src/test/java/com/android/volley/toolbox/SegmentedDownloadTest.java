@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.CanceledError;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.mock.ShadowSystemClock;
+import com.android.volley.utils.ImmediateResponseDelivery;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = {ShadowSystemClock.class})
+public class SegmentedDownloadTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private RequestQueue mQueue;
+
+    @After
+    public void tearDown() {
+        if (mQueue != null) {
+            mQueue.stop();
+        }
+    }
+
+    @Test
+    public void downloadsRangesConcurrently() throws Exception {
+        byte[] body = randomBytes(1024 * 1024 + 17);
+        FakeServer server = new FakeServer(body, /* acceptRanges= */ true);
+
+        File file = download(server);
+
+        assertArrayEquals(body, readFile(file));
+        assertEquals(SegmentedDownload.DEFAULT_SEGMENT_COUNT, server.rangeRequests.get());
+        assertEquals(0, server.fullRequests.get());
+    }
+
+    @Test
+    public void fallsBackToSingleStream() throws Exception {
+        byte[] body = randomBytes(1024 * 1024);
+        FakeServer server = new FakeServer(body, /* acceptRanges= */ false);
+
+        File file = download(server);
+
+        assertArrayEquals(body, readFile(file));
+        assertEquals(0, server.rangeRequests.get());
+        assertEquals(1, server.fullRequests.get());
+    }
+
+    @Test
+    public void capsRangeSizeAndConcurrency() throws Exception {
+        int length = (int) (5 * SegmentedDownload.MAX_RANGE_BYTES + 3);
+        byte[] body = randomBytes(length);
+        FakeServer server = new FakeServer(body, /* acceptRanges= */ true);
+
+        File file = download(server);
+
+        assertArrayEquals(body, readFile(file));
+        assertEquals(6, server.rangeRequests.get());
+        assertTrue(server.maxRangeLength <= SegmentedDownload.MAX_RANGE_BYTES);
+        assertTrue(server.maxInFlight.get() <= SegmentedDownload.DEFAULT_SEGMENT_COUNT);
+    }
+
+    @Test
+    public void interruptedWriteIsReportedAsCancellation() throws Exception {
+        byte[] body = randomBytes(1024);
+        FakeServer server =
+                new FakeServer(body, /* acceptRanges= */ false) {
+                    @Override
+                    public NetworkResponse performRequest(Request<?> request)
+                            throws VolleyError {
+                        NetworkResponse response = super.performRequest(request);
+                        if (request.getMethod() == Request.Method.GET) {
+                            // Closes the file channel as soon as the body is written to it.
+                            Thread.currentThread().interrupt();
+                        }
+                        return response;
+                    }
+                };
+
+        Object result = run(server, temporaryFolder.newFile());
+
+        assertTrue(result instanceof CanceledError);
+    }
+
+    private File download(Network network) throws Exception {
+        File destination = temporaryFolder.newFile();
+        assertEquals(destination, run(network, destination));
+        return destination;
+    }
+
+    /** Runs a download and returns the file or error it finished with. */
+    private Object run(Network network, File destination) throws Exception {
+        mQueue = new RequestQueue(new NoCache(), network, 4, new ImmediateResponseDelivery());
+        mQueue.start();
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Object> results = new ArrayList<>();
+        new SegmentedDownload(
+                        "http://example.com/asset",
+                        destination,
+                        SegmentedDownload.DEFAULT_SEGMENT_COUNT,
+                        new Response.Listener<File>() {
+                            @Override
+                            public void onResponse(File response) {
+                                results.add(response);
+                                done.countDown();
+                            }
+                        },
+                        new Response.ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                results.add(error);
+                                done.countDown();
+                            }
+                        })
+                .start(mQueue);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /** Serves one resource, honoring Range headers if configured to. */
+    private static class FakeServer implements Network {
+        private final byte[] mBody;
+        private final boolean mAcceptRanges;
+        final AtomicInteger rangeRequests = new AtomicInteger();
+        final AtomicInteger fullRequests = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile long maxRangeLength;
+        private final AtomicInteger mInFlight = new AtomicInteger();
+
+        FakeServer(byte[] body, boolean acceptRanges) {
+            mBody = body;
+            mAcceptRanges = acceptRanges;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            List<Header> headers = new ArrayList<>();
+            headers.add(new Header("ETag", "\"v1\""));
+            if (mAcceptRanges) {
+                headers.add(new Header("Accept-Ranges", "bytes"));
+            }
+            if (request.getMethod() == Request.Method.HEAD) {
+                headers.add(new Header("Content-Length", String.valueOf(mBody.length)));
+                return new NetworkResponse(200, new byte[0], false, 0, headers);
+            }
+            String range = getHeader(request, "Range");
+            if (range == null || !mAcceptRanges) {
+                fullRequests.incrementAndGet();
+                return new NetworkResponse(200, mBody, false, 0, headers);
+            }
+            rangeRequests.incrementAndGet();
+            int inFlight = mInFlight.incrementAndGet();
+            try {
+                synchronized (this) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), inFlight));
+                }
+                assertEquals("\"v1\"", getHeader(request, "If-Range"));
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]);
+                synchronized (this) {
+                    maxRangeLength = Math.max(maxRangeLength, end - start + 1);
+                }
+                headers.add(
+                        new Header(
+                                "Content-Range",
+                                "bytes " + start + "-" + end + "/" + mBody.length));
+                return new NetworkResponse(
+                        206, Arrays.copyOfRange(mBody, start, end + 1), false, 0, headers);
+            } finally {
+                mInFlight.decrementAndGet();
+            }
+        }
+
+        private static String getHeader(Request<?> request, String name) {
+            try {
+                return request.getHeaders().get(name);
+            } catch (AuthFailureError e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import android.os.SystemClock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TokenBucketTest {
+
+    @Test
+    public void burstIsFree() throws Exception {
+        TokenBucket bucket = new TokenBucket(/* bytesPerSecond= */ 1000, /* burstBytes= */ 500);
+        long start = SystemClock.elapsedRealtime();
+
+        bucket.acquire(300);
+        bucket.acquire(200);
+
+        assertEquals(start, SystemClock.elapsedRealtime());
+    }
+
+    @Test
+    public void overdraftWaitsUntilRepaid() {
+        TokenBucket bucket = new TokenBucket(/* bytesPerSecond= */ 1000, /* burstBytes= */ 500);
+
+        assertEquals(250, bucket.take(750));
+    }
+
+    @Test
+    public void refillsOverTimeUpToBurst() {
+        TokenBucket bucket = new TokenBucket(/* bytesPerSecond= */ 1000, /* burstBytes= */ 500);
+        assertEquals(0, bucket.take(500));
+        SystemClock.sleep(10000);
+
+        assertEquals(0, bucket.take(500));
+        assertEquals(100, bucket.take(100));
+    }
+
+    @Test
+    public void interruptStopsWaiting() {
+        TokenBucket bucket = new TokenBucket(/* bytesPerSecond= */ 1, /* burstBytes= */ 1);
+        Thread.currentThread().interrupt();
+        try {
+            bucket.acquire(1000);
+            fail("Expected InterruptedException");
+        } catch (InterruptedException e) {
+            assertFalse(Thread.interrupted());
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.volley.utils;
 
 import com.android.volley.ExecutorDelivery;
-import java.util.concurrent.Executor;
 
 /**
  * A ResponseDelivery for testing that immediately delivers responses instead of posting back to the
@@ -26,12 +25,6 @@ import java.util.concurrent.Executor;
 public class ImmediateResponseDelivery extends ExecutorDelivery {
 
     public ImmediateResponseDelivery() {
-        super(
-                new Executor() {
-                    @Override
-                    public void execute(Runnable command) {
-                        command.run();
-                    }
-                });
+        super(DIRECT_EXECUTOR);
     }
 }